@@ -0,0 +1,85 @@
+package com.etslabs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etslabs.Commands.CommandManager;
+import com.etslabs.Commands.TranslateCommand;
+import com.etslabs.Commands.ZoomCommand;
+import com.etslabs.Models.ImageModel;
+import com.etslabs.Models.Perspective;
+
+/**
+ * {@link CommandManager} operations against a history of the given depth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CommandBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int historyDepth;
+
+    private final CommandManager commandManager = CommandManager.getInstance();
+    private Perspective perspective;
+    private int step;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        commandManager.clear();
+        perspective = new Perspective(new ImageModel());
+        for (int i = 0; i < historyDepth; i++) {
+            commandManager.endMerge();
+            commandManager.executeCommand(new ZoomCommand(perspective, 1.0 + (i % 10) / 10.0));
+        }
+        commandManager.endMerge();
+    }
+
+    /**
+     * A new command followed by its undo, leaving the history depth unchanged.
+     */
+    @Benchmark
+    public void executeAndUndo() {
+        commandManager.executeCommand(new TranslateCommand(perspective, 1, 1));
+        commandManager.endMerge();
+        commandManager.undo();
+    }
+
+    @Benchmark
+    public void undoAndRedo() {
+        commandManager.undo();
+        commandManager.redo();
+    }
+
+    /**
+     * Consecutive moves of one drag, folded into a single history entry.
+     */
+    @Benchmark
+    public void mergedExecute() {
+        commandManager.executeCommand(new TranslateCommand(perspective, (step++ & 1) == 0 ? 1 : -1, 0));
+    }
+
+    /**
+     * Scrubbing the history: to the middle and back to the end.
+     */
+    @Benchmark
+    public void jumpAcrossHistory() {
+        commandManager.jumpTo(historyDepth / 2);
+        commandManager.jumpTo(commandManager.getHistory().size());
+    }
+}
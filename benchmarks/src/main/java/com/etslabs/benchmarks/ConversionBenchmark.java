@@ -0,0 +1,88 @@
+package com.etslabs.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.PackedRaster;
+
+import javafx.scene.image.Image;
+
+/**
+ * {@link ImageConverter} in both directions, through the zero-copy path (premultiplied ARGB
+ * rasters and shared images) and the copying one (plain ARGB rasters), and the packing of opaque
+ * images into 3 bytes per pixel with their expansion for display.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Djava.awt.headless=true" })
+public class ConversionBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int megapixels;
+
+    private BufferedImage argb;
+    private BufferedImage argbPre;
+    private BufferedImage rgb;
+    private PackedRaster packed;
+    private Image sharedImage;
+    private Image copiedImage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        argb = Images.gradient(megapixels, BufferedImage.TYPE_INT_ARGB);
+        argbPre = Images.gradient(megapixels, BufferedImage.TYPE_INT_ARGB_PRE);
+        rgb = Images.gradient(megapixels, BufferedImage.TYPE_3BYTE_BGR);
+        packed = PackedRaster.of(rgb);
+        sharedImage = ImageConverter.bufferedImageToWritableImage(argbPre);
+        copiedImage = new javafx.scene.image.WritableImage(
+                ImageConverter.bufferedImageToWritableImage(argb).getPixelReader(),
+                argb.getWidth(), argb.getHeight());
+    }
+
+    @Benchmark
+    public Image toFxCopying() {
+        return ImageConverter.bufferedImageToWritableImage(argb);
+    }
+
+    @Benchmark
+    public Image toFxShared() {
+        return ImageConverter.bufferedImageToWritableImage(argbPre);
+    }
+
+    @Benchmark
+    public PackedRaster packRgb() {
+        return PackedRaster.of(rgb);
+    }
+
+    @Benchmark
+    public Image toFxPacked() {
+        return ImageConverter.packedRasterToWritableImage(packed);
+    }
+
+    @Benchmark
+    public BufferedImage toAwtCopying() {
+        return ImageConverter.writableImageToBufferedImage(copiedImage);
+    }
+
+    @Benchmark
+    public BufferedImage toAwtShared() {
+        return ImageConverter.writableImageToBufferedImage(sharedImage);
+    }
+}
@@ -0,0 +1,78 @@
+package com.etslabs.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etslabs.Models.ImageDecoder;
+import com.etslabs.Models.ImageModel;
+
+/**
+ * Opening an image: a raw decode, the preview decode used by the UI and
+ * {@link ImageModel#loadImageFromFile}, which hits the decoded-pixel cache after the first call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Djava.awt.headless=true" })
+public class DecodeBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int megapixels;
+
+    @Param({ "png", "jpg" })
+    public String format;
+
+    private File file;
+    private ImageModel imageModel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("lab5-bench-" + megapixels + "mp", "." + format);
+        BufferedImage image = Images.gradient(megapixels, BufferedImage.TYPE_INT_RGB);
+        if (!ImageIO.write(image, format, file)) {
+            throw new IOException("No writer for " + format);
+        }
+        imageModel = new ImageModel();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageDecoder.read(file, null);
+    }
+
+    @Benchmark
+    public BufferedImage decodeAtViewSize() throws IOException {
+        return ImageDecoder.readSubsampled(file, 400, 500, null);
+    }
+
+    @Benchmark
+    public Object loadImageFromFile() {
+        imageModel.loadImageFromFile(file);
+        return imageModel.getImage();
+    }
+}
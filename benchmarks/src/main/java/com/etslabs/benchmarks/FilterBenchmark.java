@@ -0,0 +1,74 @@
+package com.etslabs.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etslabs.Interfaces.PixelFilter;
+import com.etslabs.Processing.GaussianBlurFilter;
+import com.etslabs.Processing.PixelEngine;
+import com.etslabs.Processing.ResizeFilter;
+
+/**
+ * Blur and resize through the {@link PixelEngine} with an increasing number of worker threads,
+ * to check that the filters scale with the cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Djava.awt.headless=true" })
+public class FilterBenchmark {
+
+    @Param({ "50" })
+    public int megapixels;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    private PixelEngine engine;
+    private int width;
+    private int height;
+    private int[] source;
+    private int[] blurred;
+    private int[] resized;
+    private final PixelFilter blur = new GaussianBlurFilter(3.0);
+    private final PixelFilter resize = new ResizeFilter(0.5);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new PixelEngine(threads);
+        BufferedImage image = Images.gradient(megapixels, BufferedImage.TYPE_INT_ARGB_PRE);
+        width = image.getWidth();
+        height = image.getHeight();
+        source = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        blurred = new int[width * height];
+        resized = new int[resize.getOutputWidth(width, height) * resize.getOutputHeight(width, height)];
+    }
+
+    @Benchmark
+    public int[] gaussianBlur() {
+        blur.apply(engine, source, width, height, blurred);
+        return blurred;
+    }
+
+    @Benchmark
+    public int[] resize() {
+        resize.apply(engine, source, width, height, resized);
+        return resized;
+    }
+}
@@ -0,0 +1,31 @@
+package com.etslabs.benchmarks;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Test images shared by the benchmarks.
+ */
+final class Images {
+
+    private Images() {}
+
+    /**
+     * A 4:3 gradient of about the given number of megapixels.
+     */
+    static BufferedImage gradient(int megapixels, int type) {
+        int width = (int) Math.round(Math.sqrt(megapixels * 1_000_000 * 4.0 / 3.0));
+        int height = megapixels * 1_000_000 / width;
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, new Color(0x80204080, true)));
+            g.fillRect(0, 0, width, height);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+}
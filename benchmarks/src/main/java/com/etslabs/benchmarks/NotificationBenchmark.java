@@ -0,0 +1,74 @@
+package com.etslabs.benchmarks;
+
+import java.awt.Point;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.etslabs.Interfaces.Observer;
+import com.etslabs.Models.ChangeEvent;
+import com.etslabs.Models.ImageModel;
+import com.etslabs.Models.Perspective;
+
+/**
+ * Fan-out of {@link Perspective} changes to the given number of observers, one change at a time
+ * and as a batch of three like a paste.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class NotificationBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int observerCount;
+
+    private Perspective perspective;
+    private int step;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        perspective = new Perspective(new ImageModel());
+        for (int i = 0; i < observerCount; i++) {
+            perspective.subscribe(new Observer() {
+                @Override
+                public void update() {
+                    blackhole.consume(perspective);
+                }
+
+                @Override
+                public void update(ChangeEvent event) {
+                    blackhole.consume(event);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void setScaleFactor() {
+        perspective.setScaleFactor((step++ & 1) == 0 ? 1.5 : 2.0);
+    }
+
+    @Benchmark
+    public void batchedChanges() {
+        int value = step++ & 1;
+        perspective.batch(() -> {
+            perspective.setScaleFactor(value == 0 ? 1.5 : 2.0);
+            perspective.setTranslation(new Point(value, value));
+            perspective.setScaleFactor(value == 0 ? 1.6 : 2.1);
+        });
+    }
+}
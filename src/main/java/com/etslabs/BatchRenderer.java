@@ -0,0 +1,207 @@
+package com.etslabs;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+import com.etslabs.Models.ImageDecoder;
+
+/**
+ * Headless entry point applying the perspectives of a .perspective file to every image of a
+ * directory, without JavaFX. Each image is rendered once per perspective the way a thumbnail view
+ * shows it: fitted in the view, then scaled around the view's center and translated.
+ *
+ * <pre>
+ * java -cp lab5.jar com.etslabs.BatchRenderer state.perspective inputDir outputDir
+ *      [--width 400] [--height 500] [--format png] [--threads N]
+ * </pre>
+ *
+ * Images are decoded, transformed and encoded on all cores. The work queue is bounded and the
+ * submitting thread renders itself when it is full, so only a few images are in memory at once.
+ */
+public final class BatchRenderer {
+    private static final List<String> IMAGE_SUFFIXES = Arrays.asList(".png", ".jpg", ".jpeg", ".bmp", ".gif");
+
+    private final List<AppState> states;
+    private final File outputDirectory;
+    private final int viewWidth;
+    private final int viewHeight;
+    private final String format;
+
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder transformNanos = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public BatchRenderer(List<AppState> states, File outputDirectory, int viewWidth, int viewHeight, String format) {
+        this.states = states;
+        this.outputDirectory = outputDirectory;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.format = format;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: BatchRenderer <state.perspective> <inputDir> <outputDir>"
+                    + " [--width 400] [--height 500] [--format png] [--threads N]");
+            System.exit(2);
+        }
+        int width = 400;
+        int height = 500;
+        String format = "png";
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 3; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--width":
+                    width = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--height":
+                    height = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--format":
+                    format = args[i + 1];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        StateFile stateFile = StateFile.read(Paths.get(args[0]));
+        File inputDirectory = new File(args[1]);
+        File outputDirectory = new File(args[2]);
+        File[] inputs = inputDirectory.listFiles(BatchRenderer::isImage);
+        if (inputs == null) {
+            System.out.println("Not a directory: " + inputDirectory);
+            System.exit(1);
+        }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.out.println("Cannot create output directory: " + outputDirectory);
+            System.exit(1);
+        }
+        Arrays.sort(inputs);
+
+        BatchRenderer renderer = new BatchRenderer(stateFile.getStates(), outputDirectory, width, height, format);
+        renderer.renderAll(Arrays.asList(inputs), threads);
+        System.exit(renderer.failed.get() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Renders every file and prints throughput and per-stage timings once all are done.
+     */
+    public void renderAll(List<File> inputs, int threads) throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+        for (File input : inputs) {
+            executor.execute(() -> render(input));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        printReport(System.nanoTime() - start, threads);
+    }
+
+    private void render(File input) {
+        try {
+            long decodeStart = System.nanoTime();
+            // The largest zoom decides how many source pixels are worth decoding
+            double maxScale = states.stream().mapToDouble(AppState::getScaleFactor).max().orElse(1.0);
+            BufferedImage source = ImageDecoder.readSubsampled(input,
+                    (int) Math.ceil(viewWidth * Math.max(1.0, maxScale)),
+                    (int) Math.ceil(viewHeight * Math.max(1.0, maxScale)), null);
+            if (source == null) {
+                throw new IOException("Decoding aborted");
+            }
+            long transformStart = System.nanoTime();
+            decodeNanos.add(transformStart - decodeStart);
+
+            String baseName = input.getName().replaceFirst("\\.[^.]*$", "");
+            for (int i = 0; i < states.size(); i++) {
+                long stateStart = System.nanoTime();
+                BufferedImage output = transform(source, states.get(i));
+                long encodeStart = System.nanoTime();
+                transformNanos.add(encodeStart - stateStart);
+
+                File outputFile = new File(outputDirectory, baseName + "_p" + (i + 1) + "." + format);
+                if (!ImageIO.write(output, format, outputFile)) {
+                    throw new IOException("No writer for format " + format);
+                }
+                encodeNanos.add(System.nanoTime() - encodeStart);
+            }
+            rendered.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.out.println("Failed to render " + input + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Draws the image as a thumbnail view with the given state shows it.
+     */
+    BufferedImage transform(BufferedImage source, AppState state) {
+        boolean opaque = "jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format)
+                || "bmp".equalsIgnoreCase(format);
+        BufferedImage output = new BufferedImage(viewWidth, viewHeight,
+                opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+
+        // Fitted like the thumbnail's ImageView (preserve ratio, centered in its pane)
+        double fit = Math.min((double) viewWidth / source.getWidth(), (double) viewHeight / source.getHeight());
+        double fittedWidth = source.getWidth() * fit;
+        double fittedHeight = source.getHeight() * fit;
+
+        // Node transforms: translation, then scale around the center of the fitted image
+        AffineTransform transform = new AffineTransform();
+        transform.translate(state.getTranslateX(), state.getTranslateY());
+        transform.translate(viewWidth / 2.0, viewHeight / 2.0);
+        transform.scale(state.getScaleFactor(), state.getScaleFactor());
+        transform.translate(-fittedWidth / 2.0, -fittedHeight / 2.0);
+        transform.scale(fit, fit);
+
+        Graphics2D g = output.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            g.drawImage(source, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return output;
+    }
+
+    private void printReport(long elapsedNanos, int threads) {
+        int images = rendered.get();
+        double seconds = elapsedNanos / 1e9;
+        int outputs = Math.max(1, images * states.size());
+        System.out.println(String.format(Locale.ROOT, "Rendered %d images (%d outputs, %d failed) in %.2f s"
+                + " on %d threads: %.1f images/s", images, images * states.size(), failed.get(), seconds,
+                threads, images / seconds));
+        System.out.println(String.format(Locale.ROOT,
+                "Per stage (thread time): decode %.1f ms/image, transform %.1f ms/output, encode %.1f ms/output",
+                decodeNanos.sum() / 1e6 / Math.max(1, images), transformNanos.sum() / 1e6 / outputs,
+                encodeNanos.sum() / 1e6 / outputs));
+    }
+
+    private static boolean isImage(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return file.isFile() && IMAGE_SUFFIXES.stream().anyMatch(name::endsWith);
+    }
+}
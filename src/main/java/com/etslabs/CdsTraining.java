@@ -0,0 +1,87 @@
+package com.etslabs;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.SharedPixelBuffer;
+import com.etslabs.Processing.GaussianBlurFilter;
+import com.etslabs.Processing.PixelEngine;
+
+/**
+ * Headless run loading the classes a launch needs, so that the JVM can dump them to a class data
+ * sharing archive with {@code -XX:ArchiveClassesAtExit}. It decodes, scales, filters and encodes
+ * small images, and loads the JavaFX and application classes without initializing them, since
+ * there may be no display to start the toolkit on.
+ *
+ * <pre>
+ * mvn -Pcds package
+ * </pre>
+ */
+public final class CdsTraining {
+    private static final String[] CLASSES = {
+            "javafx.application.Platform",
+            "javafx.scene.Scene",
+            "javafx.scene.control.MenuBar",
+            "javafx.scene.control.Menu",
+            "javafx.scene.control.MenuItem",
+            "javafx.scene.control.ProgressBar",
+            "javafx.scene.control.ListView",
+            "javafx.scene.control.Label",
+            "javafx.scene.control.skin.MenuBarSkin",
+            "javafx.scene.control.skin.ListViewSkin",
+            "javafx.scene.control.skin.ProgressBarSkin",
+            "javafx.scene.layout.BorderPane",
+            "javafx.scene.layout.HBox",
+            "javafx.scene.layout.VBox",
+            "javafx.scene.image.ImageView",
+            "javafx.scene.image.WritableImage",
+            "javafx.scene.image.PixelBuffer",
+            "javafx.stage.FileChooser",
+            "javafx.animation.AnimationTimer",
+            "com.etslabs.MainApp",
+            "com.etslabs.Controllers.MainController",
+            "com.etslabs.Controllers.PerspectiveController",
+            "com.etslabs.Controllers.ThumbnailController",
+            "com.etslabs.Controllers.HistoryController",
+            "com.etslabs.Views.PerspectiveView",
+            "com.etslabs.Views.ThumbnailView",
+            "com.etslabs.Views.MetricsOverlay",
+            "com.etslabs.Commands.CommandJournal",
+            "com.etslabs.Models.Workspace",
+    };
+
+    private CdsTraining() {}
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x << 16) | (y << 8) | ((x + y) & 0xff));
+            }
+        }
+        for (String format : new String[] { "png", "jpg", "bmp", "gif" }) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            ImageIO.write(image, format, encoded);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encoded.toByteArray()));
+            if (decoded == null) {
+                throw new IOException("Cannot decode " + format);
+            }
+            SharedPixelBuffer scaled = ImageConverter.scaleToFit(decoded, 64);
+            ImageIO.write(scaled.getBufferedImage(), format, new ByteArrayOutputStream());
+        }
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        PixelEngine.getInstance().apply(new GaussianBlurFilter(2), pixels, image.getWidth(), image.getHeight(),
+                new int[pixels.length]);
+        ClassLoader loader = CdsTraining.class.getClassLoader();
+        for (String name : CLASSES) {
+            Class.forName(name, false, loader);
+        }
+        System.out.println("Loaded the startup classes");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,797 @@
+package com.etslabs.Commands;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Interfaces.Command;
+import com.etslabs.Interfaces.PixelFilter;
+import com.etslabs.Models.Perspective;
+import com.etslabs.Processing.Filters;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+/**
+ * Write-ahead journal of the editing session. Every command executed, undone or redone through the
+ * {@link CommandManager} is appended as a small record; records are written and fsynced by a
+ * background thread, several at a time (group commit), so the UI never waits for the disk.
+ *
+ * <p>A snapshot (current image, and image and state of every registered perspective) starts a new
+ * journal file, which keeps the journal proportional to the history. Switching images keeps the
+ * history, so it is journaled as a views record holding the same data, without starting a new file.
+ * After a crash, {@link #recover()} returns the last snapshot and the records following it, up to
+ * the last complete one, so the session can be replayed.
+ *
+ * <p>Each record is framed as: body length, CRC32 of the body, body; the body starts with its type.
+ * Records are small: the pixels of pasted images are written by the background thread to a side
+ * file, starting over with each journal file, and image records only give their offset and CRC32.
+ */
+public class CommandJournal implements AutoCloseable {
+    private static final byte SNAPSHOT = 1;
+    private static final byte EXECUTE = 2;
+    private static final byte MERGE = 3;
+    private static final byte IMAGE = 4;
+    private static final byte UNDO = 5;
+    private static final byte REDO = 6;
+    private static final byte JUMP = 7;
+    private static final byte VIEWS = 8;
+
+    private static final byte ZOOM = 1;
+    private static final byte TRANSLATE = 2;
+    private static final byte PASTE = 3;
+    private static final byte FILTER = 4;
+
+    // Largest record body, checked both when writing and when reading
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+    // Largest pasted image journaled, checked both when writing and when reading
+    private static final long MAX_IMAGE_PIXELS = Integer.MAX_VALUE - 8;
+
+    private final Path path;
+    private final Path imagesPath;
+    // Images of the journal being recovered, moved aside so that the new journal starts its own
+    private final Path recoveredImagesPath;
+    private final Map<Integer, Perspective> perspectives = new LinkedHashMap<>();
+    private final Map<Perspective, Integer> perspectiveIds = new IdentityHashMap<>();
+    private ImageBinder imageBinder;
+    // Images already written to the current journal file, so repeated pastes only refer to them
+    private final Map<Image, Integer> journaledImages = new WeakHashMap<>();
+    private int nextImageId;
+
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Entry stop = new Entry(null, false);
+    private final Thread writer;
+    private FileChannel channel;
+    private FileChannel imagesChannel;
+    private long imagesSize;
+    private volatile boolean closed;
+
+    public CommandJournal() {
+        this(Paths.get(System.getProperty("user.home"), ".lab5", "journal", "session.journal"));
+    }
+
+    public CommandJournal(Path path) {
+        this.path = path;
+        this.imagesPath = path.resolveSibling(path.getFileName() + ".images");
+        this.recoveredImagesPath = path.resolveSibling(path.getFileName() + ".images.recovered");
+        writer = new Thread(this::writeLoop, "command-journal");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "command-journal-shutdown"));
+    }
+
+    /**
+     * Gives a perspective the id under which its commands are journaled. Ids must stay the same
+     * from one run to the next for recovery to find the perspectives again.
+     */
+    public void registerPerspective(int id, Perspective perspective) {
+        perspectives.put(id, perspective);
+        perspectiveIds.put(perspective, id);
+    }
+
+    /**
+     * Files of the images the perspectives show: read when journaling views, and shown again when
+     * replaying them.
+     */
+    public interface ImageBinder {
+        /**
+         * Path of the image the perspective shows, or null if it is empty.
+         */
+        String getImagePath(Perspective perspective);
+
+        /**
+         * Shows the given images, decoding them first if needed, then runs {@code done} on the
+         * JavaFX thread. Null paths leave the views as they are.
+         *
+         * @param currentPath image current in the application
+         * @param imagePaths image of each registered perspective, by id
+         */
+        void bind(String currentPath, Map<Integer, String> imagePaths, Runnable done);
+    }
+
+    /**
+     * Sets what gives the image of each perspective. Without it, views are journaled without
+     * images and replayed on the images already shown.
+     */
+    public void setImageBinder(ImageBinder imageBinder) {
+        this.imageBinder = imageBinder;
+    }
+
+    /**
+     * Starts a new journal file holding the current image, and the image and state of every
+     * registered perspective.
+     *
+     * @param imagePath image current in the application, or null if none
+     */
+    public void snapshot(String imagePath) {
+        journaledImages.clear();
+        queue.add(new Entry(viewsRecord(SNAPSHOT, imagePath), true));
+    }
+
+    /**
+     * Appends the current image, and the image and state of every registered perspective, e.g.
+     * after switching images. Unlike a snapshot, the history journaled so far is kept.
+     *
+     * @param imagePath image current in the application, or null if none
+     */
+    public void recordViews(String imagePath) {
+        queue.add(new Entry(viewsRecord(VIEWS, imagePath), false));
+    }
+
+    private ByteBuffer viewsRecord(byte type, String imagePath) {
+        List<String> paths = new ArrayList<>();
+        int capacity = 8 + utf8Length(imagePath) + 24 * perspectives.size();
+        for (Perspective perspective : perspectives.values()) {
+            String path = imageBinder != null ? imageBinder.getImagePath(perspective) : null;
+            paths.add(path);
+            capacity += utf8Length(path);
+        }
+        RecordWriter record = new RecordWriter(type, capacity);
+        record.putString(imagePath);
+        record.buffer.putInt(perspectives.size());
+        int index = 0;
+        for (Map.Entry<Integer, Perspective> entry : perspectives.entrySet()) {
+            Perspective perspective = entry.getValue();
+            record.buffer.putInt(entry.getKey());
+            record.putString(paths.get(index++));
+            record.buffer.putDouble(perspective.getScaleFactor());
+            record.buffer.putInt(perspective.getTranslation().x);
+            record.buffer.putInt(perspective.getTranslation().y);
+        }
+        return record.finish();
+    }
+
+    private static int utf8Length(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8).length : 0;
+    }
+
+    void recordExecute(Command command, boolean merged) {
+        Integer perspectiveId = perspectiveIds.get(command.getPerspective());
+        if (perspectiveId == null) {
+            System.out.println("Command not journaled, unknown perspective: " + command.getDescription());
+            return;
+        }
+        RecordWriter record;
+        if (command instanceof ZoomCommand) {
+            record = new RecordWriter(merged ? MERGE : EXECUTE);
+            record.buffer.putInt(perspectiveId).put(ZOOM);
+            record.buffer.putDouble(((ZoomCommand) command).getNewScaleFactor());
+        } else if (command instanceof TranslateCommand) {
+            record = new RecordWriter(merged ? MERGE : EXECUTE);
+            record.buffer.putInt(perspectiveId).put(TRANSLATE);
+            record.buffer.putDouble(((TranslateCommand) command).getOffsetX());
+            record.buffer.putDouble(((TranslateCommand) command).getOffsetY());
+        } else if (command instanceof PasteCommand) {
+            PasteCommand paste = (PasteCommand) command;
+            int imageId = journalImage(paste.getNewImage());
+            record = new RecordWriter(merged ? MERGE : EXECUTE);
+            record.buffer.putInt(perspectiveId).put(PASTE);
+            record.buffer.putInt(imageId);
+            record.buffer.putDouble(paste.getNewScaleFactor());
+            record.buffer.putInt(paste.getNewTranslation().x);
+            record.buffer.putInt(paste.getNewTranslation().y);
+        } else if (command instanceof FilterCommand) {
+            FilterCommand filterCommand = (FilterCommand) command;
+            PixelFilter filter = filterCommand.getFilter();
+            double[] parameters = filter.getParameters();
+            record = new RecordWriter(merged ? MERGE : EXECUTE,
+                    64 + 4 * filter.getName().length() + 8 * parameters.length);
+            record.buffer.putInt(perspectiveId).put(FILTER);
+            record.putString(filter.getName());
+            record.buffer.putInt(parameters.length);
+            for (double parameter : parameters) {
+                record.buffer.putDouble(parameter);
+            }
+            Rectangle region = filterCommand.getRegion();
+            record.buffer.put((byte) (region != null ? 1 : 0));
+            if (region != null) {
+                record.buffer.putInt(region.x).putInt(region.y).putInt(region.width).putInt(region.height);
+            }
+        } else {
+            System.out.println("Command not journaled, unsupported type: " + command.getDescription());
+            return;
+        }
+        queue.add(new Entry(record.finish(), false));
+    }
+
+    void recordUndo() {
+        queue.add(new Entry(new RecordWriter(UNDO).finish(), false));
+    }
+
+    void recordRedo() {
+        queue.add(new Entry(new RecordWriter(REDO).finish(), false));
+    }
+
+    void recordJump(int index) {
+        RecordWriter record = new RecordWriter(JUMP);
+        record.buffer.putInt(index);
+        queue.add(new Entry(record.finish(), false));
+    }
+
+    /**
+     * Blocks until every record queued so far is on disk.
+     */
+    public void flush() throws InterruptedException {
+        await(new Entry(null, false));
+    }
+
+    private void await(Entry barrier) throws InterruptedException {
+        queue.add(barrier);
+        synchronized (barrier) {
+            while (!barrier.done && writer.isAlive()) {
+                barrier.wait(100);
+            }
+        }
+    }
+
+    /**
+     * Reads the journal left by the previous run.
+     *
+     * @return the session to replay, or null if there is nothing to recover
+     */
+    public Session recover() {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            // Left in place if the previous recovery was interrupted before starting a new journal
+            if (Files.exists(imagesPath)) {
+                Files.move(imagesPath, recoveredImagesPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to keep the journaled images: " + e.getMessage());
+            e.printStackTrace();
+        }
+        List<ByteBuffer> records = new ArrayList<>();
+        long validBytes = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer frame = ByteBuffer.allocate(8);
+            while (true) {
+                frame.clear();
+                if (!readFully(in, frame)) {
+                    break;
+                }
+                frame.flip();
+                int length = frame.getInt();
+                int expectedCrc = frame.getInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES || length > in.size() - in.position()) {
+                    break;
+                }
+                ByteBuffer body = ByteBuffer.allocate(length);
+                if (!readFully(in, body)) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body.array(), 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    break;
+                }
+                body.flip();
+                records.add(body);
+                validBytes = in.position();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read command journal: " + e.getMessage());
+            return null;
+        }
+        if (validBytes < path.toFile().length()) {
+            System.out.println("Command journal: ignoring incomplete records after byte " + validBytes);
+        }
+        return records.isEmpty() ? null : new Session(records);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // The writer stops once it has written everything queued before this barrier. It is not
+            // interrupted, which would close the files in the middle of a write
+            await(stop);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int journalImage(Image image) {
+        if (image == null) {
+            return -1;
+        }
+        Integer existing = journaledImages.get(image);
+        if (existing != null) {
+            return existing;
+        }
+        int imageId = nextImageId++;
+        // The pixels are read by the writer thread: pasted images are never modified
+        queue.add(new Entry(null, false, image, imageId));
+        journaledImages.put(image, imageId);
+        return imageId;
+    }
+
+    /**
+     * Appends the pixels to the side file, a row at a time, then the record referring to them.
+     * Images too large to be read back get a record without pixels, which stops the replay.
+     */
+    private void writeImage(Image image, int imageId) throws IOException {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        long offset = -1;
+        CRC32 crc = new CRC32();
+        if ((long) width * height > MAX_IMAGE_PIXELS) {
+            System.out.println("Failed to journal pasted image " + width + "x" + height
+                    + ": too large, a recovery will stop at this paste");
+        } else {
+            if (imagesChannel == null) {
+                Files.createDirectories(imagesPath.getParent());
+                imagesChannel = FileChannel.open(imagesPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                imagesSize = imagesChannel.size();
+            }
+            offset = imagesSize;
+            long position = offset;
+            PixelReader reader = image.getPixelReader();
+            int[] pixels = new int[width];
+            ByteBuffer row = ByteBuffer.allocate(4 * width);
+            for (int y = 0; y < height; y++) {
+                reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+                row.clear();
+                row.asIntBuffer().put(pixels);
+                crc.update(row.array(), 0, row.limit());
+                while (row.hasRemaining()) {
+                    position += imagesChannel.write(row, position);
+                }
+            }
+            imagesSize = position;
+        }
+        RecordWriter record = new RecordWriter(IMAGE, 24);
+        record.buffer.putInt(imageId).putInt(width).putInt(height);
+        record.buffer.putLong(offset).putInt((int) crc.getValue());
+        write(record.finish());
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch);
+            try {
+                for (Entry entry : batch) {
+                    if (entry.image != null) {
+                        writeImage(entry.image, entry.imageId);
+                        continue;
+                    }
+                    if (entry.record == null) {
+                        continue;
+                    }
+                    if (entry.rotate) {
+                        rotate(entry.record);
+                    } else {
+                        write(entry.record);
+                    }
+                }
+                // One fsync for the whole batch, images first since records refer to them
+                if (imagesChannel != null) {
+                    imagesChannel.force(false);
+                }
+                if (channel != null) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to write command journal: " + e.getMessage());
+                e.printStackTrace();
+            }
+            for (Entry entry : batch) {
+                stopping |= entry == stop;
+                synchronized (entry) {
+                    entry.done = true;
+                    entry.notifyAll();
+                }
+            }
+            batch.clear();
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (imagesChannel != null) {
+                imagesChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        if (channel == null) {
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    /**
+     * Replaces the journal file by a new one starting with the given snapshot, with no images.
+     */
+    private void rotate(ByteBuffer snapshot) throws IOException {
+        if (imagesChannel != null) {
+            imagesChannel.close();
+            imagesChannel = null;
+        }
+        Files.deleteIfExists(imagesPath);
+        imagesSize = 0;
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), "session", ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (snapshot.hasRemaining()) {
+                    out.write(snapshot);
+                }
+                out.force(false);
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static boolean readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        private final ByteBuffer record;
+        private final boolean rotate;
+        // Pasted image whose pixels and record are written by the writer thread
+        private final Image image;
+        private final int imageId;
+        private boolean done;
+
+        Entry(ByteBuffer record, boolean rotate) {
+            this(record, rotate, null, -1);
+        }
+
+        Entry(ByteBuffer record, boolean rotate, Image image, int imageId) {
+            this.record = record;
+            this.rotate = rotate;
+            this.image = image;
+            this.imageId = imageId;
+        }
+    }
+
+    /**
+     * Builds one framed record: the frame header is filled in by {@link #finish()}.
+     */
+    private static final class RecordWriter {
+        private final ByteBuffer buffer;
+
+        RecordWriter(byte type) {
+            this(type, 64);
+        }
+
+        RecordWriter(byte type, int capacity) {
+            buffer = ByteBuffer.allocate(8 + 1 + capacity);
+            buffer.position(8);
+            buffer.put(type);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        ByteBuffer finish() {
+            int length = buffer.position() - 8;
+            if (length > MAX_RECORD_BYTES) {
+                // Would be taken for a damaged record when recovering, losing every record after it
+                throw new IllegalArgumentException("Journal record of " + length + " bytes exceeds "
+                        + MAX_RECORD_BYTES);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 8, length);
+            buffer.putInt(0, length);
+            buffer.putInt(4, (int) crc.getValue());
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Session read back from the journal: the last snapshot and the records that followed it.
+     */
+    public class Session {
+        private final List<ByteBuffer> records;
+        private String imagePath;
+        private final Map<Integer, Image> images = new LinkedHashMap<>();
+        private int replayed;
+
+        private Session(List<ByteBuffer> records) {
+            this.records = records;
+            for (ByteBuffer record : records) {
+                if (record.get(0) == SNAPSHOT || record.get(0) == VIEWS) {
+                    record.position(1);
+                    imagePath = readString(record);
+                    record.rewind();
+                }
+            }
+        }
+
+        /**
+         * Image that was current when the journal ends, or null.
+         */
+        public String getImagePath() {
+            return imagePath;
+        }
+
+        /**
+         * True when the replay applies filters, which need the images at full resolution.
+         */
+        public boolean hasFilters() {
+            for (ByteBuffer record : records) {
+                byte type = record.get(0);
+                if ((type == EXECUTE || type == MERGE) && record.limit() > 5 && record.get(5) == FILTER) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Restores the snapshotted views, starts a new journal from them, then replays the journaled
+         * commands through the command manager, which journals them again. Views records show their
+         * images again through the {@link ImageBinder}, which may decode them first: the replay then
+         * goes on once they are shown.
+         */
+        public void replay(CommandManager commandManager) {
+            if (records.get(0).get(0) != SNAPSHOT) {
+                // Start a new file anyway, the old one would otherwise get the replayed records twice
+                snapshot(null);
+            }
+            replayFrom(0, commandManager);
+        }
+
+        private void replayFrom(int first, CommandManager commandManager) {
+            for (int index = first; index < records.size(); index++) {
+                ByteBuffer record = records.get(index);
+                record.rewind();
+                byte type = record.get();
+                try {
+                    switch (type) {
+                        case SNAPSHOT:
+                        case VIEWS:
+                            int next = index + 1;
+                            restoreViews(record, () -> {
+                                replayed++;
+                                replayFrom(next, commandManager);
+                            });
+                            return;
+                        case IMAGE:
+                            int imageId = record.getInt();
+                            images.put(imageId, readImage(record));
+                            break;
+                        case EXECUTE:
+                        case MERGE:
+                            Command command = readCommand(record);
+                            if (command != null) {
+                                commandManager.replay(command, type == MERGE);
+                            }
+                            break;
+                        case UNDO:
+                            commandManager.undo();
+                            break;
+                        case REDO:
+                            commandManager.redo();
+                            break;
+                        case JUMP:
+                            commandManager.jumpTo(record.getInt());
+                            break;
+                        default:
+                            System.out.println("Unknown journal record type: " + type);
+                    }
+                    replayed++;
+                } catch (RuntimeException e) {
+                    System.out.println("Stopped replaying the journal at a bad record: " + e.getMessage());
+                    e.printStackTrace();
+                    break;
+                }
+            }
+            System.out.println("Replayed " + replayed + " journal records.");
+            try {
+                Files.deleteIfExists(recoveredImagesPath);
+            } catch (IOException e) {
+                System.out.println("Failed to delete the recovered journal images: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Shows the images of a snapshot or views record, then restores the perspective states and
+         * journals the record again before running {@code done}.
+         */
+        private void restoreViews(ByteBuffer record, Runnable done) {
+            byte type = record.get(0);
+            String currentPath = readString(record);
+            int count = record.getInt();
+            Map<Integer, String> imagePaths = new LinkedHashMap<>();
+            Map<Integer, double[]> states = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                int id = record.getInt();
+                imagePaths.put(id, readString(record));
+                states.put(id, new double[] { record.getDouble(), record.getInt(), record.getInt() });
+            }
+            Runnable restore = () -> {
+                for (Map.Entry<Integer, double[]> state : states.entrySet()) {
+                    Perspective perspective = perspectives.get(state.getKey());
+                    if (perspective != null) {
+                        double[] values = state.getValue();
+                        perspective.restore(values[0], new Point((int) values[1], (int) values[2]),
+                                perspective.getImageModel().getImage());
+                    }
+                }
+                if (type == SNAPSHOT) {
+                    snapshot(currentPath);
+                } else {
+                    recordViews(currentPath);
+                }
+                done.run();
+            };
+            if (imageBinder != null) {
+                imageBinder.bind(currentPath, imagePaths, restore);
+            } else {
+                restore.run();
+            }
+        }
+
+        private Command readCommand(ByteBuffer record) {
+            Perspective perspective = perspectives.get(record.getInt());
+            byte commandType = record.get();
+            if (perspective == null) {
+                System.out.println("Journal refers to an unknown perspective, command skipped.");
+                return null;
+            }
+            switch (commandType) {
+                case ZOOM:
+                    return new ZoomCommand(perspective, record.getDouble());
+                case TRANSLATE:
+                    return new TranslateCommand(perspective, record.getDouble(), record.getDouble());
+                case PASTE:
+                    int imageId = record.getInt();
+                    double scaleFactor = record.getDouble();
+                    Point translation = new Point(record.getInt(), record.getInt());
+                    return new PasteCommand(perspective, imageId >= 0 ? images.get(imageId) : null,
+                            scaleFactor, translation);
+                case FILTER:
+                    String name = readString(record);
+                    double[] parameters = new double[record.getInt()];
+                    for (int i = 0; i < parameters.length; i++) {
+                        parameters[i] = record.getDouble();
+                    }
+                    Rectangle region = record.get() != 0
+                            ? new Rectangle(record.getInt(), record.getInt(), record.getInt(), record.getInt()) : null;
+                    return new FilterCommand(perspective, Filters.create(name, parameters), region);
+                default:
+                    throw new IllegalStateException("Unknown journaled command type " + commandType);
+            }
+        }
+
+        /**
+         * Reads back the pixels of an image record from the side file, a row at a time.
+         */
+        private Image readImage(ByteBuffer record) {
+            int width = record.getInt();
+            int height = record.getInt();
+            long offset = record.getLong();
+            int expectedCrc = record.getInt();
+            if (offset < 0 || (long) width * height > MAX_IMAGE_PIXELS) {
+                throw new IllegalStateException("pasted image " + width + "x" + height + " was too large to journal");
+            }
+            BufferedImage argb = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+            CRC32 crc = new CRC32();
+            ByteBuffer row = ByteBuffer.allocate(4 * width);
+            try (FileChannel in = FileChannel.open(recoveredImagesPath, StandardOpenOption.READ)) {
+                long position = offset;
+                for (int y = 0; y < height; y++) {
+                    row.clear();
+                    if (!readFully(in, row, position)) {
+                        throw new IllegalStateException("journaled image file is truncated");
+                    }
+                    position += row.capacity();
+                    crc.update(row.array(), 0, row.capacity());
+                    row.flip();
+                    row.asIntBuffer().get(pixels, y * width, width);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read journaled image", e);
+            }
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IllegalStateException("journaled image does not match its checksum");
+            }
+            return ImageConverter.bufferedImageToWritableImage(argb);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,14 +1,41 @@
 package com.etslabs.Commands;
 
-import java.util.Stack;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import com.etslabs.Interfaces.Command;
+import com.etslabs.Metrics.CommandEvent;
+import com.etslabs.Metrics.Metrics;
+import com.etslabs.Models.ImageModel;
+import com.etslabs.Models.ImageVersion;
+import com.etslabs.Models.Perspective;
 
 public class CommandManager {
     private static final CommandManager instance = new CommandManager();
+    private static final int CHECKPOINT_INTERVAL = 20;
 
-    private final Stack<Command> undoStack = new Stack<>();
-    private final Stack<Command> redoStack = new Stack<>();
+    // Commands before the cursor can be undone, commands from the cursor on can be redone
+    private final List<Command> history = new ArrayList<>();
+    private int cursor;
+    // Whether the next command may be merged into the last one
+    private boolean mergeOpen;
+
+    // State of each perspective before its first command, and snapshots every CHECKPOINT_INTERVAL commands
+    private final Map<Perspective, HistoryCheckpoint> baselines = new LinkedHashMap<>();
+    private final TreeMap<Integer, HistoryCheckpoint> checkpoints = new TreeMap<>();
+    private final List<Runnable> historyListeners = new ArrayList<>();
+
+    private CommandJournal journal;
+
+    private final SpillFile spillFile = new SpillFile();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
 
     private CommandManager() {}
 
@@ -16,30 +43,301 @@ public class CommandManager {
         return instance;
     }
 
+    /**
+     * Executes the command and records it, merged into the last command when both are
+     * part of the same gesture and the last command accepts it (see {@link Command#mergeWith}).
+     */
     public void executeCommand(Command command) {
+        record(command, mergeOpen && cursor > 0 && cursor == history.size());
+        mergeOpen = true;
+    }
+
+    /**
+     * Executes a command read back from the journal, merging it into the last command if it was
+     * merged when first executed.
+     */
+    public void replay(Command command, boolean merged) {
+        record(command, merged && cursor > 0 && cursor == history.size());
+        mergeOpen = false;
+    }
+
+    /**
+     * @param mayMerge whether the last command is offered to absorb this one
+     */
+    private void record(Command command, boolean mayMerge) {
+        long start = Metrics.now();
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        recordBaseline(command);
         command.execute();
-        undoStack.push(command);
-        redoStack.clear(); 
+        // Only the last command changes when merging, so the executed command is journaled as is
+        boolean merge = mayMerge && history.get(cursor - 1).mergeWith(command);
+        if (journal != null) {
+            journal.recordExecute(command, merge);
+        }
+        if (merge) {
+            if (checkpoints.containsKey(cursor)) {
+                checkpoints.put(cursor, HistoryCheckpoint.capture(baselines.keySet()));
+            }
+            enforceMemoryBudget();
+            fireHistoryChanged();
+            Metrics.MERGED_COMMANDS.increment();
+        } else {
+            push(command);
+        }
+        commit(event, "execute", command, merge);
+        Metrics.COMMAND.recordSince(start);
+    }
+
+    /**
+     * Ends the current gesture: the next command starts a new history entry.
+     */
+    public void endMerge() {
+        mergeOpen = false;
     }
 
     public void addCommand(Command command) {
-        undoStack.push(command);
-        redoStack.clear();
+        if (journal != null) {
+            journal.recordExecute(command, false);
+        }
+        push(command);
+        mergeOpen = false;
+    }
+
+    /**
+     * Forgets the whole history, e.g. when another image is loaded.
+     */
+    public void clear() {
+        history.forEach(Command::discard);
+        history.clear();
+        cursor = 0;
+        mergeOpen = false;
+        baselines.clear();
+        checkpoints.clear();
+        fireHistoryChanged();
+    }
+
+    /**
+     * Sets the journal every executed, undone and redone command is appended to, or null for none.
+     */
+    public void setJournal(CommandJournal journal) {
+        this.journal = journal;
     }
 
     public void undo() {
-        if (!undoStack.isEmpty()) {
-            Command command = undoStack.pop();
+        mergeOpen = false;
+        if (cursor > 0) {
+            long start = Metrics.now();
+            CommandEvent event = new CommandEvent();
+            event.begin();
+            if (journal != null) {
+                journal.recordUndo();
+            }
+            Command command = history.get(--cursor);
             command.undo();
-            redoStack.push(command);
+            fireHistoryChanged();
+            commit(event, "undo", command, false);
+            Metrics.COMMAND.recordSince(start);
         }
     }
 
     public void redo() {
-        if (!redoStack.isEmpty()) {
-            Command command = redoStack.pop();
+        mergeOpen = false;
+        if (cursor < history.size()) {
+            if (journal != null) {
+                journal.recordRedo();
+            }
+            long start = Metrics.now();
+            CommandEvent event = new CommandEvent();
+            event.begin();
+            Command command = history.get(cursor++);
             command.execute();
-            undoStack.push(command);
+            fireHistoryChanged();
+            commit(event, "redo", command, false);
+            Metrics.COMMAND.recordSince(start);
+        }
+    }
+
+    /**
+     * Moves to the given position of the history, 0 being the state before the first command.
+     * Starts from the nearest checkpoint (or from the current position if closer) and replays only
+     * the commands in between; each perspective is notified at most once.
+     */
+    public void jumpTo(int index) {
+        mergeOpen = false;
+        if (index < 0 || index > history.size() || index == cursor) {
+            return;
+        }
+        if (journal != null) {
+            journal.recordJump(index);
+        }
+        long start = Metrics.now();
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        Map.Entry<Integer, HistoryCheckpoint> checkpoint = checkpoints.floorEntry(index);
+        int checkpointIndex = checkpoint != null ? checkpoint.getKey() : 0;
+
+        List<Perspective> perspectives = new ArrayList<>(baselines.keySet());
+        Set<ImageModel> imageModels = new LinkedHashSet<>();
+        for (Perspective perspective : perspectives) {
+            imageModels.add(perspective.getImageModel());
+            perspective.beginBatch();
+        }
+        imageModels.forEach(ImageModel::beginBatch);
+        try {
+            if (Math.abs(index - cursor) <= index - checkpointIndex) {
+                while (cursor > index) {
+                    history.get(--cursor).undo();
+                }
+            } else {
+                for (Perspective perspective : perspectives) {
+                    if (checkpoint == null || !checkpoint.getValue().restore(perspective)) {
+                        baselines.get(perspective).restore(perspective);
+                    }
+                }
+                cursor = checkpointIndex;
+            }
+            while (cursor < index) {
+                history.get(cursor++).execute();
+            }
+        } finally {
+            // Image models first, so that their changes are folded into the perspectives' notification
+            imageModels.forEach(ImageModel::endBatch);
+            perspectives.forEach(Perspective::endBatch);
+        }
+        fireHistoryChanged();
+        commit(event, "jump", null, false);
+        Metrics.COMMAND.recordSince(start);
+    }
+
+    public List<Command> getHistory() {
+        return Collections.unmodifiableList(history);
+    }
+
+    /**
+     * Number of commands currently applied.
+     */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Registers a callback run whenever the history or the position in it changes.
+     */
+    public void addHistoryListener(Runnable listener) {
+        historyListeners.add(listener);
+    }
+
+    public void removeHistoryListener(Runnable listener) {
+        historyListeners.remove(listener);
+    }
+
+    /**
+     * Sets how many bytes of images the history may keep in memory before spilling the oldest ones to disk.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        enforceMemoryBudget();
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Bytes of images currently held in memory by the history, its baselines and checkpoints, each
+     * image counted once, including the tiles of image versions (see {@link ImageVersion}), which
+     * cannot be spilled.
+     */
+    public long getRetainedBytes() {
+        return getPayloadBytes() + ImageVersion.getLiveTileBytes();
+    }
+
+    private long getPayloadBytes() {
+        long retained = 0;
+        for (ImagePayload payload : getPayloadsOldestFirst()) {
+            if (payload.isInMemory()) {
+                retained += payload.getBytes();
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Every image held by the history, each once, in the order of the history: the baselines,
+     * then the commands with the checkpoints taken among them.
+     */
+    private Set<ImagePayload> getPayloadsOldestFirst() {
+        // Payloads do not override equals, so the set keeps each one once by identity
+        Set<ImagePayload> payloads = new LinkedHashSet<>();
+        for (HistoryCheckpoint baseline : baselines.values()) {
+            payloads.addAll(baseline.getPayloads());
+        }
+        for (int i = 0; i <= history.size(); i++) {
+            HistoryCheckpoint checkpoint = checkpoints.get(i);
+            if (checkpoint != null) {
+                payloads.addAll(checkpoint.getPayloads());
+            }
+            if (i < history.size()) {
+                payloads.addAll(history.get(i).getPayloads());
+            }
+        }
+        return payloads;
+    }
+
+    private void recordBaseline(Command command) {
+        Perspective perspective = command.getPerspective();
+        if (perspective != null && !baselines.containsKey(perspective)) {
+            baselines.put(perspective, HistoryCheckpoint.capture(Collections.singletonList(perspective)));
+        }
+    }
+
+    private void push(Command command) {
+        List<Command> redoBranch = history.subList(cursor, history.size());
+        redoBranch.forEach(Command::discard);
+        redoBranch.clear();
+        checkpoints.tailMap(cursor, false).clear();
+        history.add(command);
+        cursor++;
+        if (cursor % CHECKPOINT_INTERVAL == 0) {
+            checkpoints.put(cursor, HistoryCheckpoint.capture(baselines.keySet()));
+        }
+        enforceMemoryBudget();
+        fireHistoryChanged();
+    }
+
+    private void commit(CommandEvent event, String action, Command command, boolean merged) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.command = command != null ? command.getDescription() : null;
+            event.merged = merged;
+            event.historySize = history.size();
+            event.commit();
+        }
+    }
+
+    private void fireHistoryChanged() {
+        for (Runnable listener : new ArrayList<>(historyListeners)) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Spills the oldest images first, checkpoints included, until the spillable images fit in the budget.
+     */
+    private void enforceMemoryBudget() {
+        long retained = getPayloadBytes();
+        for (ImagePayload payload : getPayloadsOldestFirst()) {
+            if (retained <= memoryBudget) {
+                break;
+            }
+            try {
+                retained -= payload.spill(spillFile);
+            } catch (IOException e) {
+                System.out.println("Failed to spill history image: " + e.getMessage());
+                return;
+            }
         }
     }
 }
@@ -0,0 +1,154 @@
+package com.etslabs.Commands;
+
+import java.awt.Rectangle;
+
+import com.etslabs.Interfaces.Command;
+import com.etslabs.Interfaces.PixelFilter;
+import com.etslabs.Models.ImageVersion;
+import com.etslabs.Models.Perspective;
+import com.etslabs.Processing.PixelEngine;
+
+import javafx.scene.image.Image;
+
+/**
+ * Replaces the image of a perspective by the result of a pixel filter, over the whole image or
+ * only a region of it. The images before and after are kept as {@link ImageVersion}s: the version
+ * after shares every tile the filter did not change, so undo and redo only switch between versions
+ * and the history pays for the region touched, not for a full copy of the image.
+ */
+public class FilterCommand implements Command {
+    private final Perspective perspective;
+    private final PixelFilter filter;
+    private final Rectangle region;
+
+    private ImageVersion before;
+    private ImageVersion after;
+    // Keeps the result rendered by prepare() until execute() shows it
+    private Image prepared;
+
+    public FilterCommand(Perspective perspective, PixelFilter filter) {
+        this(perspective, filter, null);
+    }
+
+    /**
+     * @param region part of the image to filter, in image pixels, or null for the whole image
+     */
+    public FilterCommand(Perspective perspective, PixelFilter filter, Rectangle region) {
+        this.perspective = perspective;
+        this.filter = filter;
+        this.region = region;
+    }
+
+    @Override
+    public void execute() {
+        Image current = perspective.getImageModel().getImage();
+        if (current == null) {
+            return;
+        }
+        ImageVersion source = ImageVersion.of(current);
+        if (source == before) {
+            // Redo, or a jump through the history executing the command again from the same image
+            source.release();
+        } else {
+            ImageVersion result = filter(source);
+            discard();
+            before = source;
+            after = result;
+        }
+        perspective.setImage(after.toImage());
+        prepared = null;
+    }
+
+    /**
+     * Filters the image ahead of {@link #execute()}, which then only shows the result if the
+     * perspective still shows that image. Runs on any thread, so that large images are filtered
+     * off the JavaFX thread; the command must not be executed until it returns.
+     */
+    public void prepare(Image image) {
+        ImageVersion source = ImageVersion.of(image);
+        ImageVersion result;
+        try {
+            result = filter(source);
+        } catch (RuntimeException e) {
+            source.release();
+            throw e;
+        }
+        discard();
+        before = source;
+        after = result;
+        prepared = after.toImage();
+    }
+
+    private ImageVersion filter(ImageVersion source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        PixelEngine engine = PixelEngine.getInstance();
+        boolean keepsSize = filter.getOutputWidth(width, height) == width
+                && filter.getOutputHeight(width, height) == height;
+        Rectangle target = region != null && keepsSize
+                ? region.intersection(new Rectangle(0, 0, width, height)) : new Rectangle(0, 0, width, height);
+        if (target.isEmpty()) {
+            return source.retain();
+        }
+        // The filter reads around each pixel, so it gets the region with a margin of source pixels
+        Rectangle input = new Rectangle(target.x - filter.getMargin(), target.y - filter.getMargin(),
+                target.width + 2 * filter.getMargin(), target.height + 2 * filter.getMargin())
+                .intersection(new Rectangle(0, 0, width, height));
+        int[] pixels = new int[input.width * input.height];
+        source.read(input.x, input.y, input.width, input.height, pixels);
+        int outputWidth = filter.getOutputWidth(input.width, input.height);
+        int outputHeight = filter.getOutputHeight(input.width, input.height);
+        int[] filtered = new int[outputWidth * outputHeight];
+        engine.apply(filter, pixels, input.width, input.height, filtered);
+        if (!keepsSize) {
+            return ImageVersion.of(filtered, outputWidth, outputHeight);
+        }
+        return source.withRegion(filtered, input.x, input.y, input.width, target);
+    }
+
+    @Override
+    public void undo() {
+        if (before != null) {
+            perspective.setImage(before.toImage());
+        }
+    }
+
+    /**
+     * Releases the versions, and with them every tile no other command shares.
+     */
+    @Override
+    public void discard() {
+        if (before != null) {
+            before.release();
+            after.release();
+            before = null;
+            after = null;
+        }
+        prepared = null;
+    }
+
+    public PixelFilter getFilter() {
+        return filter;
+    }
+
+    public Rectangle getRegion() {
+        return region;
+    }
+
+    /**
+     * Bytes of tiles this command added to the image it was applied to.
+     */
+    public long getAddedBytes() {
+        return after != null ? after.getBytesAddedTo(before) : 0;
+    }
+
+    @Override
+    public Perspective getPerspective() {
+        return perspective;
+    }
+
+    @Override
+    public String getDescription() {
+        return region != null ? filter.getDescription() + " (region)" : filter.getDescription();
+    }
+}
@@ -0,0 +1,64 @@
+package com.etslabs.Commands;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.etslabs.Models.Perspective;
+
+/**
+ * Snapshot of the state of every known perspective at one position of the history.
+ * Images are kept as {@link ImagePayload}s so that they can be spilled like command images.
+ */
+class HistoryCheckpoint {
+    private final Map<Perspective, State> states = new IdentityHashMap<>();
+
+    static HistoryCheckpoint capture(Iterable<Perspective> perspectives) {
+        HistoryCheckpoint checkpoint = new HistoryCheckpoint();
+        for (Perspective perspective : perspectives) {
+            checkpoint.states.put(perspective, new State(perspective));
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Restores the perspective if this checkpoint knows it.
+     *
+     * @return false if the perspective was not part of the checkpoint
+     */
+    boolean restore(Perspective perspective) {
+        State state = states.get(perspective);
+        if (state == null) {
+            return false;
+        }
+        perspective.restore(state.scaleFactor, state.translation, state.image != null ? state.image.get() : null);
+        return true;
+    }
+
+    /**
+     * Images held by the checkpoint, to be charged to the history's memory budget.
+     */
+    List<ImagePayload> getPayloads() {
+        List<ImagePayload> payloads = new ArrayList<>();
+        for (State state : states.values()) {
+            if (state.image != null) {
+                payloads.add(state.image);
+            }
+        }
+        return payloads;
+    }
+
+    private static final class State {
+        private final double scaleFactor;
+        private final Point translation;
+        private final ImagePayload image;
+
+        State(Perspective perspective) {
+            this.scaleFactor = perspective.getScaleFactor();
+            this.translation = new Point(perspective.getTranslation());
+            this.image = ImagePayload.of(perspective.getImageModel().getImage());
+        }
+    }
+}
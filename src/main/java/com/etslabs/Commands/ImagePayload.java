@@ -0,0 +1,129 @@
+package com.etslabs.Commands;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.PackedRaster;
+import com.etslabs.Converter.SharedPixelBuffer;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+/**
+ * Image kept by the undo history. Commands referring to the same image share one payload, so the
+ * history charges its memory once. A payload can be spilled to a {@link SpillFile}: it then only
+ * keeps a weak reference to the image and reloads the pixels from disk if the image was collected.
+ */
+public class ImagePayload {
+    private static final Map<Image, WeakReference<ImagePayload>> payloads = new WeakHashMap<>();
+
+    private Image image;
+    private WeakReference<Image> spilledImage;
+    private final int width;
+    private final int height;
+    private SpillFile spillFile;
+    private long spillOffset = -1;
+    private boolean premultiplied;
+
+    private ImagePayload(Image image) {
+        this.image = image;
+        this.width = (int) image.getWidth();
+        this.height = (int) image.getHeight();
+    }
+
+    /**
+     * Returns the payload for the image, shared with every other command holding it.
+     */
+    public static synchronized ImagePayload of(Image image) {
+        if (image == null) {
+            return null;
+        }
+        WeakReference<ImagePayload> existing = payloads.get(image);
+        ImagePayload payload = existing != null ? existing.get() : null;
+        if (payload == null) {
+            payload = new ImagePayload(image);
+            payloads.put(image, new WeakReference<>(payload));
+        }
+        return payload;
+    }
+
+    /**
+     * Returns the image, reading it back from the spill file if it is no longer in memory.
+     */
+    public synchronized Image get() {
+        if (image != null) {
+            return image;
+        }
+        Image alive = spilledImage.get();
+        if (alive != null) {
+            return alive;
+        }
+        try {
+            int[] pixels = spillFile.read(spillOffset, width, height);
+            Image reloaded;
+            if (premultiplied) {
+                reloaded = SharedPixelBuffer.wrap(width, height, pixels).getFxImage();
+            } else {
+                BufferedImage argb = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                System.arraycopy(pixels, 0, ((DataBufferInt) argb.getRaster().getDataBuffer()).getData(), 0,
+                        pixels.length);
+                reloaded = ImageConverter.bufferedImageToWritableImage(argb);
+            }
+            spilledImage = new WeakReference<>(reloaded);
+            synchronized (ImagePayload.class) {
+                payloads.put(reloaded, new WeakReference<>(this));
+            }
+            return reloaded;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot reload image from history", e);
+        }
+    }
+
+    public synchronized boolean isInMemory() {
+        return image != null;
+    }
+
+    /**
+     * Bytes of pixel data kept in memory by this payload.
+     */
+    public long getBytes() {
+        return 4L * width * height;
+    }
+
+    /**
+     * Writes the pixels to the spill file, if not already there, and drops the strong reference.
+     *
+     * @return the number of bytes no longer charged to the history
+     */
+    synchronized long spill(SpillFile file) throws IOException {
+        if (image == null) {
+            return 0;
+        }
+        if (spillOffset < 0) {
+            SharedPixelBuffer shared = SharedPixelBuffer.of(image);
+            PackedRaster.RowSource rows;
+            if (shared != null) {
+                int[] pixels = shared.getPixels();
+                rows = (y, dst, offset) -> System.arraycopy(pixels, y * width, dst, offset, width);
+                premultiplied = true;
+            } else {
+                PixelReader reader = image.getPixelReader();
+                rows = (y, dst, offset) -> reader.getPixels(0, y, width, 1,
+                        PixelFormat.getIntArgbInstance(), dst, offset, width);
+                premultiplied = false;
+            }
+            spillOffset = file.write(width, height, rows);
+            spillFile = file;
+        }
+        spilledImage = new WeakReference<>(image);
+        image = null;
+        return getBytes();
+    }
+}
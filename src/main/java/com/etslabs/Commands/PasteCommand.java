@@ -1,6 +1,8 @@
 package com.etslabs.Commands;
 
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.etslabs.Interfaces.Command;
 import com.etslabs.Models.ImageModel;
@@ -10,11 +12,11 @@ import javafx.scene.image.Image;
 
 public class PasteCommand implements Command {
     private final Perspective perspective;
-    private final Image newImage;
+    private final ImagePayload newImage;
     private final double newScaleFactor;
     private final Point newTranslation;
 
-    private Image oldImage;
+    private ImagePayload oldImage;
     private double oldScaleFactor;
     private Point oldTranslation;
 
@@ -26,7 +28,7 @@ public class PasteCommand implements Command {
      */
     public PasteCommand(Perspective perspective, Image newImage, double newScaleFactor, Point newTranslation) {
         this.perspective = perspective;
-        this.newImage = newImage;
+        this.newImage = ImagePayload.of(newImage);
         this.newScaleFactor = newScaleFactor;
         this.newTranslation = newTranslation;
     }
@@ -34,19 +36,57 @@ public class PasteCommand implements Command {
     @Override
     public void execute() {
         ImageModel imageModel = perspective.getImageModel();
-        oldImage = imageModel.getImage();
+        oldImage = ImagePayload.of(imageModel.getImage());
         oldScaleFactor = perspective.getScaleFactor();
         oldTranslation = new Point(perspective.getTranslation());
 
-        perspective.setImage(newImage);
-        perspective.setScaleFactor(newScaleFactor);
-        perspective.setTranslation(newTranslation);
+        perspective.batch(() -> {
+            perspective.setImage(newImage != null ? newImage.get() : null);
+            perspective.setScaleFactor(newScaleFactor);
+            perspective.setTranslation(newTranslation);
+        });
     }
 
     @Override
     public void undo() {
-        perspective.setImage(oldImage);
-        perspective.setScaleFactor(oldScaleFactor);
-        perspective.setTranslation(oldTranslation);
+        perspective.batch(() -> {
+            perspective.setImage(oldImage != null ? oldImage.get() : null);
+            perspective.setScaleFactor(oldScaleFactor);
+            perspective.setTranslation(oldTranslation);
+        });
+    }
+
+    public Image getNewImage() {
+        return newImage != null ? newImage.get() : null;
+    }
+
+    public double getNewScaleFactor() {
+        return newScaleFactor;
+    }
+
+    public Point getNewTranslation() {
+        return newTranslation;
+    }
+
+    @Override
+    public List<ImagePayload> getPayloads() {
+        List<ImagePayload> payloads = new ArrayList<>(2);
+        if (oldImage != null) {
+            payloads.add(oldImage);
+        }
+        if (newImage != null) {
+            payloads.add(newImage);
+        }
+        return payloads;
+    }
+
+    @Override
+    public Perspective getPerspective() {
+        return perspective;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Paste image";
     }
 }
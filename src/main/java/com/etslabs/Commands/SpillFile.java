@@ -0,0 +1,98 @@
+package com.etslabs.Commands;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.etslabs.Converter.PackedRaster;
+
+/**
+ * Append-only temporary file holding pixel arrays evicted from the undo history. Pixels go through
+ * a buffer of one row, so spilling an image never makes a second full-size copy of it.
+ * The file is deleted when closed or when the JVM exits.
+ */
+public class SpillFile implements AutoCloseable {
+    private FileChannel channel;
+    private long size;
+    private ByteBuffer rowBuffer;
+    private int[] row;
+
+    /**
+     * Appends the pixels, read a row at a time, and returns the offset to read them back from.
+     */
+    public synchronized long write(int width, int height, PackedRaster.RowSource rows) throws IOException {
+        FileChannel out = channel();
+        ByteBuffer buffer = rowBuffer(width);
+        long offset = size;
+        long position = offset;
+        for (int y = 0; y < height; y++) {
+            rows.readRow(y, row, 0);
+            buffer.clear();
+            buffer.asIntBuffer().put(row, 0, width);
+            buffer.limit(4 * width);
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+        }
+        size = position;
+        return offset;
+    }
+
+    /**
+     * Reads back pixels written at the offset, a row at a time.
+     */
+    public synchronized int[] read(long offset, int width, int height) throws IOException {
+        ByteBuffer buffer = rowBuffer(width);
+        int[] pixels = new int[Math.multiplyExact(width, height)];
+        long position = offset;
+        for (int y = 0; y < height; y++) {
+            buffer.clear();
+            buffer.limit(4 * width);
+            while (buffer.hasRemaining()) {
+                int read = channel().read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Spill file truncated");
+                }
+                position += read;
+            }
+            buffer.flip();
+            buffer.asIntBuffer().get(pixels, y * width, width);
+        }
+        return pixels;
+    }
+
+    private ByteBuffer rowBuffer(int width) {
+        if (row == null || row.length < width) {
+            row = new int[width];
+            rowBuffer = ByteBuffer.allocateDirect(4 * width).order(ByteOrder.nativeOrder());
+        }
+        return rowBuffer;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            size = 0;
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            Path path = Files.createTempFile("lab5-history", ".spill");
+            path.toFile().deleteOnExit();
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        return channel;
+    }
+}
@@ -4,11 +4,16 @@ import java.awt.Point;
 import com.etslabs.Interfaces.Command;
 import com.etslabs.Models.Perspective;
 
+/**
+ * Moves a perspective. Consecutive moves merge for as long as the {@link CommandManager} keeps the
+ * gesture open, i.e. from the press to the release of a drag or to the end of a fling, however
+ * slow the drag; unlike {@link ZoomCommand}, no time window is needed.
+ */
 public class TranslateCommand implements Command {
     private final Perspective perspective;
     private final Point oldTranslation;
-    private final double offsetX;
-    private final double offsetY;
+    private double offsetX;
+    private double offsetY;
 
     public TranslateCommand(Perspective perspective, double offsetX, double offsetY) {
         this.perspective = perspective;
@@ -19,11 +24,14 @@ public class TranslateCommand implements Command {
 
     @Override
     public void execute() {
-        Point newTranslation = new Point(
+        perspective.setTranslation(getNewTranslation());
+    }
+
+    private Point getNewTranslation() {
+        return new Point(
                 (int) (oldTranslation.getX() + offsetX),
                 (int) (oldTranslation.getY() + offsetY)
         );
-        perspective.setTranslation(newTranslation);
     }
 
     @Override
@@ -38,4 +46,26 @@ public class TranslateCommand implements Command {
     public double getOffsetY() {
         return offsetY;
     }
+
+    @Override
+    public boolean mergeWith(Command next) {
+        if (!(next instanceof TranslateCommand) || ((TranslateCommand) next).perspective != perspective) {
+            return false;
+        }
+        // Taken from the resulting translation so that redo lands exactly where the gesture ended
+        Point newTranslation = ((TranslateCommand) next).getNewTranslation();
+        offsetX = newTranslation.getX() - oldTranslation.getX();
+        offsetY = newTranslation.getY() - oldTranslation.getY();
+        return true;
+    }
+
+    @Override
+    public Perspective getPerspective() {
+        return perspective;
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Move by (%.0f, %.0f)", offsetX, offsetY);
+    }
 }
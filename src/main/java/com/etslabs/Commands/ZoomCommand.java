@@ -3,10 +3,20 @@ package com.etslabs.Commands;
 import com.etslabs.Interfaces.Command;
 import com.etslabs.Models.Perspective;
 
+/**
+ * Sets the zoom of a perspective. Consecutive zooms within {@link #MERGE_WINDOW_NANOS} of each
+ * other merge into one step: the scroll wheel has no press and release delimiting a gesture, as a
+ * drag has for {@link TranslateCommand}, so the pause between notches is what ends it.
+ */
 public class ZoomCommand implements Command {
+    // Zooms closer together than this are considered part of the same gesture
+    private static final long MERGE_WINDOW_NANOS = 500_000_000L;
+
     private final Perspective perspective;
     private final double oldScaleFactor;
-    private final double newScaleFactor;
+    private double newScaleFactor;
+    // Monotonic, so that a clock adjustment neither splits nor joins gestures
+    private long lastUpdateNanos = System.nanoTime();
 
     public ZoomCommand(Perspective perspective, double newScaleFactor) {
         this.perspective = perspective;
@@ -31,4 +41,28 @@ public class ZoomCommand implements Command {
     public double getNewScaleFactor() {
         return newScaleFactor;
     }
+
+    @Override
+    public boolean mergeWith(Command next) {
+        if (!(next instanceof ZoomCommand)) {
+            return false;
+        }
+        ZoomCommand zoom = (ZoomCommand) next;
+        if (zoom.perspective != perspective || zoom.lastUpdateNanos - lastUpdateNanos > MERGE_WINDOW_NANOS) {
+            return false;
+        }
+        newScaleFactor = zoom.newScaleFactor;
+        lastUpdateNanos = zoom.lastUpdateNanos;
+        return true;
+    }
+
+    @Override
+    public Perspective getPerspective() {
+        return perspective;
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Zoom to %.0f%%", newScaleFactor * 100);
+    }
 }
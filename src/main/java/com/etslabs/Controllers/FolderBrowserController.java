@@ -0,0 +1,178 @@
+package com.etslabs.Controllers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import com.etslabs.Models.ThumbnailGenerator;
+
+import javafx.application.Platform;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.OverrunStyle;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+
+/**
+ * Grid of the thumbnails of a folder. The grid is a list of rows, so that only the rows on screen
+ * have nodes, whatever the number of images; a row that scrolls out of view is reused for the one
+ * scrolling in, and the previews it was still waiting for are dropped. Double-clicking a thumbnail
+ * opens the image.
+ */
+public class FolderBrowserController {
+    private static final int TILE_WIDTH = ThumbnailGenerator.SIZE + 16;
+    private static final int TILE_HEIGHT = ThumbnailGenerator.SIZE + 32;
+
+    private final ThumbnailGenerator generator = ThumbnailGenerator.getInstance();
+    private final ListView<Integer> rows = new ListView<>();
+    private final Label status = new Label();
+    private final VBox view;
+    private final Consumer<File> onOpen;
+    private List<File> files = Collections.emptyList();
+    private File directory;
+    private int columns = 1;
+
+    /**
+     * @param onOpen called with the image file the user opens
+     */
+    public FolderBrowserController(Consumer<File> onOpen) {
+        this.onOpen = onOpen;
+        // All rows have the same height, which spares the list from measuring them while scrolling
+        rows.setFixedCellSize(TILE_HEIGHT + 8);
+        rows.setCellFactory(list -> new RowCell());
+        rows.widthProperty().addListener((obs, oldWidth, newWidth) -> updateColumns());
+        VBox.setVgrow(rows, Priority.ALWAYS);
+        view = new VBox(5, status, rows);
+        view.setStyle("-fx-padding: 5;");
+    }
+
+    public VBox getView() {
+        return view;
+    }
+
+    /**
+     * Shows the images of the directory. The listing runs in the background.
+     */
+    public void open(File directory) {
+        this.directory = directory;
+        status.setText("Reading " + directory + "...");
+        CompletableFuture.supplyAsync(() -> ThumbnailGenerator.listImages(directory))
+                .thenAccept(images -> Platform.runLater(() -> {
+                    // Ignore the listing if another folder was opened meanwhile
+                    if (directory.equals(this.directory)) {
+                        setFiles(images);
+                    }
+                }));
+    }
+
+    private void setFiles(List<File> images) {
+        files = images;
+        status.setText(directory + " - " + images.size() + " images");
+        refreshRows();
+        rows.scrollTo(0);
+    }
+
+    private void updateColumns() {
+        // Leaves room for the vertical scroll bar
+        int fitting = Math.max(1, (int) ((rows.getWidth() - 20) / TILE_WIDTH));
+        if (fitting != columns) {
+            columns = fitting;
+            refreshRows();
+        }
+    }
+
+    private void refreshRows() {
+        int rowCount = (files.size() + columns - 1) / columns;
+        List<Integer> indexes = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            indexes.add(row);
+        }
+        rows.getItems().setAll(indexes);
+    }
+
+    private class RowCell extends ListCell<Integer> {
+        private final HBox tiles = new HBox(4);
+
+        RowCell() {
+            setStyle("-fx-background-color: transparent; -fx-padding: 2;");
+            setText(null);
+        }
+
+        @Override
+        protected void updateItem(Integer row, boolean empty) {
+            super.updateItem(row, empty);
+            while (tiles.getChildren().size() > columns) {
+                ((Tile) tiles.getChildren().remove(tiles.getChildren().size() - 1)).show(null);
+            }
+            while (tiles.getChildren().size() < columns) {
+                tiles.getChildren().add(new Tile());
+            }
+            for (int column = 0; column < columns; column++) {
+                int index = empty || row == null ? -1 : row * columns + column;
+                ((Tile) tiles.getChildren().get(column)).show(index >= 0 && index < files.size()
+                        ? files.get(index) : null);
+            }
+            setGraphic(empty ? null : tiles);
+        }
+    }
+
+    /**
+     * One thumbnail and its file name.
+     */
+    private class Tile extends VBox {
+        private final ImageView imageView = new ImageView();
+        private final Label name = new Label();
+        private File file;
+        private Future<?> pending;
+
+        Tile() {
+            super(2);
+            setAlignment(Pos.TOP_CENTER);
+            setPrefSize(TILE_WIDTH, TILE_HEIGHT);
+            setMinSize(TILE_WIDTH, TILE_HEIGHT);
+            StackPane frame = new StackPane(imageView);
+            frame.setPrefSize(ThumbnailGenerator.SIZE, ThumbnailGenerator.SIZE);
+            frame.setMinSize(ThumbnailGenerator.SIZE, ThumbnailGenerator.SIZE);
+            name.setMaxWidth(TILE_WIDTH);
+            name.setTextOverrun(OverrunStyle.CENTER_ELLIPSIS);
+            getChildren().addAll(frame, name);
+            setOnMouseClicked(event -> {
+                if (file != null && event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
+                    onOpen.accept(file);
+                }
+            });
+        }
+
+        void show(File shown) {
+            if (shown != null && shown.equals(file)) {
+                return;
+            }
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+            file = shown;
+            setVisible(shown != null);
+            name.setText(shown != null ? shown.getName() : null);
+            imageView.setImage(shown != null ? generator.getLoaded(shown) : null);
+            if (shown != null && imageView.getImage() == null) {
+                pending = generator.request(shown, thumbnail -> {
+                    if (shown.equals(file)) {
+                        imageView.setImage(thumbnail);
+                        pending = null;
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.etslabs.Controllers;
+
+import com.etslabs.Commands.CommandManager;
+import com.etslabs.Interfaces.Command;
+
+import javafx.application.Platform;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+/**
+ * Scrubbable list of the undo history. Selecting an entry jumps straight to that point.
+ */
+public class HistoryController {
+    private final CommandManager commandManager = CommandManager.getInstance();
+    private final ListView<String> historyList = new ListView<>();
+    private final VBox view;
+    private boolean refreshing;
+    private boolean refreshPending;
+
+    public HistoryController() {
+        Label title = new Label("History");
+        VBox.setVgrow(historyList, Priority.ALWAYS);
+        view = new VBox(5, title, historyList);
+        view.setStyle("-fx-padding: 5;");
+        view.setPrefWidth(180);
+
+        historyList.getSelectionModel().selectedIndexProperty().addListener((obs, oldIndex, newIndex) -> {
+            if (!refreshing && newIndex.intValue() >= 0) {
+                commandManager.jumpTo(newIndex.intValue());
+            }
+        });
+        commandManager.addHistoryListener(this::scheduleRefresh);
+        refresh();
+    }
+
+    public VBox getView() {
+        return view;
+    }
+
+    /**
+     * Refreshes the list after the current event: history changes made from the selection listener
+     * arrive while the list is still delivering that selection, which must not be changed under it.
+     */
+    private void scheduleRefresh() {
+        if (refreshPending) {
+            return;
+        }
+        refreshPending = true;
+        Platform.runLater(() -> {
+            refreshPending = false;
+            refresh();
+        });
+    }
+
+    private void refresh() {
+        refreshing = true;
+        try {
+            historyList.getItems().setAll("Initial state");
+            int index = 1;
+            for (Command command : commandManager.getHistory()) {
+                String label = index + ". " + command.getDescription();
+                historyList.getItems().add(index > commandManager.getCursor() ? label + " (undone)" : label);
+                index++;
+            }
+            historyList.getSelectionModel().select(commandManager.getCursor());
+            historyList.scrollTo(commandManager.getCursor());
+        } finally {
+            refreshing = false;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.etslabs.Controllers;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Tracks the velocity of a drag and, when the drag is released fast enough, keeps panning at a
+ * decreasing speed, one step per pulse, like a flick on a touch screen.
+ */
+class KineticPan {
+    // Time for the speed to drop by a factor e once released
+    private static final double TIME_CONSTANT_SECONDS = 0.325;
+    // Weight of older drag events in the velocity estimate
+    private static final double SMOOTHING_SECONDS = 0.05;
+    // A drag held still this long before release does not fling
+    private static final double MAX_RELEASE_PAUSE_SECONDS = 0.1;
+    private static final double MIN_FLING_SPEED = 100;
+    private static final double STOP_SPEED = 15;
+
+    /**
+     * Receives the whole-pixel offsets of each step of a fling.
+     */
+    interface Step {
+        void move(int offsetX, int offsetY);
+    }
+
+    private final Step step;
+    private final Runnable stopped;
+
+    private double lastX, lastY;
+    private long lastNanos;
+    private double velocityX, velocityY;
+    private double remainderX, remainderY;
+    private boolean flinging;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            double seconds = (now - lastNanos) / 1e9;
+            lastNanos = now;
+            if (seconds <= 0) {
+                return;
+            }
+            // Exact distance covered over the frame by an exponentially decaying speed
+            double decay = Math.exp(-seconds / TIME_CONSTANT_SECONDS);
+            remainderX += velocityX * TIME_CONSTANT_SECONDS * (1 - decay);
+            remainderY += velocityY * TIME_CONSTANT_SECONDS * (1 - decay);
+            velocityX *= decay;
+            velocityY *= decay;
+            int offsetX = (int) remainderX;
+            int offsetY = (int) remainderY;
+            if (offsetX != 0 || offsetY != 0) {
+                remainderX -= offsetX;
+                remainderY -= offsetY;
+                step.move(offsetX, offsetY);
+            }
+            if (Math.hypot(velocityX, velocityY) < STOP_SPEED) {
+                stop();
+            }
+        }
+    };
+
+    /**
+     * @param step applies each step of a fling
+     * @param stopped run when a fling ends, whether it slowed down or was stopped
+     */
+    KineticPan(Step step, Runnable stopped) {
+        this.step = step;
+        this.stopped = stopped;
+    }
+
+    void press(double x, double y) {
+        stop();
+        lastX = x;
+        lastY = y;
+        lastNanos = System.nanoTime();
+        velocityX = 0;
+        velocityY = 0;
+    }
+
+    void drag(double x, double y) {
+        long now = System.nanoTime();
+        double seconds = (now - lastNanos) / 1e9;
+        if (seconds > 0) {
+            double weight = 1 - Math.exp(-seconds / SMOOTHING_SECONDS);
+            velocityX += weight * ((x - lastX) / seconds - velocityX);
+            velocityY += weight * ((y - lastY) / seconds - velocityY);
+        }
+        lastX = x;
+        lastY = y;
+        lastNanos = now;
+    }
+
+    /**
+     * Starts a fling if the drag was moving fast enough when released.
+     *
+     * @return true if a fling started, in which case {@code stopped} runs when it ends
+     */
+    boolean release() {
+        long now = System.nanoTime();
+        if ((now - lastNanos) / 1e9 > MAX_RELEASE_PAUSE_SECONDS
+                || Math.hypot(velocityX, velocityY) < MIN_FLING_SPEED) {
+            velocityX = 0;
+            velocityY = 0;
+            return false;
+        }
+        lastNanos = now;
+        remainderX = 0;
+        remainderY = 0;
+        flinging = true;
+        timer.start();
+        return true;
+    }
+
+    /**
+     * Ends the fling in progress, if any.
+     */
+    void stop() {
+        if (flinging) {
+            flinging = false;
+            timer.stop();
+            velocityX = 0;
+            velocityY = 0;
+            stopped.run();
+        }
+    }
+
+    boolean isFlinging() {
+        return flinging;
+    }
+
+    /**
+     * Current speed of the drag or fling, in scene pixels per second.
+     */
+    double getVelocityX() {
+        return velocityX;
+    }
+
+    double getVelocityY() {
+        return velocityY;
+    }
+}
@@ -1,47 +1,98 @@
 package com.etslabs.Controllers;
 
 import java.awt.Point;
+import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import com.etslabs.AppState;
+import com.etslabs.StateFile;
+import com.etslabs.Commands.CommandJournal;
+import com.etslabs.Commands.CommandManager;
+import com.etslabs.Interfaces.PixelFilter;
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.PackedRaster;
+import com.etslabs.Metrics.Metrics;
+import com.etslabs.Models.DecodedImage;
+import com.etslabs.Models.DecodedImageCache;
+import com.etslabs.Models.ImageDecoder;
+import com.etslabs.Models.ImageLoader;
 import com.etslabs.Models.ImageModel;
 import com.etslabs.Models.Perspective;
+import com.etslabs.Models.Workspace;
+import com.etslabs.Processing.BrightnessContrastFilter;
+import com.etslabs.Processing.GaussianBlurFilter;
+import com.etslabs.Processing.GrayscaleFilter;
+import com.etslabs.Processing.LevelsFilter;
+import com.etslabs.Processing.ResizeFilter;
+import com.etslabs.Processing.SharpenFilter;
+import com.etslabs.Views.MetricsOverlay;
 
-import javafx.beans.property.DoubleProperty;
-import javafx.beans.property.ObjectProperty;
-import javafx.beans.property.SimpleDoubleProperty;
-import javafx.beans.property.SimpleObjectProperty;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.control.TextArea;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 public class MainController {
     private final Stage primaryStage;
+    private FolderBrowserController folderBrowser;
+    private Stage folderStage;
     private final Scene scene;
     private final ImageModel imageModel = new ImageModel();
+    private final ImageLoader imageLoader = new ImageLoader();
+    // Loads images picked for a single thumbnail, without cancelling the main load
+    private final ImageLoader thumbnailLoader = new ImageLoader();
+    // Loads the images a replayed journal shows, which user loads must not cancel
+    private final ImageLoader replayLoader = new ImageLoader();
+    private final Workspace workspace = new Workspace(Runtime.getRuntime().maxMemory() / 4);
+    private final ProgressBar loadProgress = new ProgressBar();
+    private final MetricsOverlay metricsOverlay = new MetricsOverlay();
     private final Perspective perspective = new Perspective(imageModel);
-    private final ObjectProperty<javafx.scene.image.Image> clipboardImage = new SimpleObjectProperty<>();
-    private final DoubleProperty clipboardScaleX = new SimpleDoubleProperty(1.0);
-    private final DoubleProperty clipboardScaleY = new SimpleDoubleProperty(1.0);
-    private final DoubleProperty clipboardTranslateX = new SimpleDoubleProperty(0.0);
-    private final DoubleProperty clipboardTranslateY = new SimpleDoubleProperty(0.0);
+    private final CommandManager commandManager = CommandManager.getInstance();
+    private final CommandJournal journal = new CommandJournal();
+    // Previews shown at launch while the image of the previous session decodes
+    private final DecodedImageCache sessionPreviews = new DecodedImageCache(
+            Paths.get(System.getProperty("user.home"), ".lab5", "session-preview"), 64L * 1024 * 1024);
+    private static final int SESSION_PREVIEW_SIZE = 2048;
     private PerspectiveController perspectiveController;
     private ThumbnailController thumbnailController1;
     private ThumbnailController thumbnailController2;
     private ThumbnailController activeThumbnailController;
+    private final CheckMenuItem visibleAreaOnly = new CheckMenuItem("Apply to Visible Area");
+    // "Show Image" submenus of the thumbnails, listing the open images
+    private final List<Menu> imageMenus = new ArrayList<>();
     private File currentImageFile;
+    private boolean fullResolutionPending;
+    // Run once the pending full-resolution load is shown, e.g. a filter waiting for it
+    private final List<Runnable> afterFullResolution = new ArrayList<>();
+    // Set when the journal holds filters, which must replay on full-resolution images
+    private boolean replayAtFullResolution;
+    private boolean warmStart;
+    // True while a newly opened image is still decoding, possibly showing its first passes
+    private boolean imageLoading;
 
     public MainController(Stage primaryStage) {
         this.primaryStage = primaryStage;
@@ -51,7 +102,189 @@ public class MainController {
     public void init() {
         primaryStage.setScene(scene);
         primaryStage.setTitle("Image Viewer with Undo/Redo");
+        CommandJournal.Session session = journal.recover();
+        replayAtFullResolution = session != null && session.hasFilters();
+        // Done before showing the window, so that its first frame already shows the last image
+        warmStart = session != null && restoreSessionPreview(session);
         primaryStage.show();
+        if (warmStart) {
+            reloadAfterWarmStart(currentImageFile);
+        } else if (session != null) {
+            session.replay(commandManager);
+        } else {
+            // Whatever is left of the previous journal is unreadable: start a new one
+            journal.snapshot(null);
+        }
+    }
+
+    /**
+     * True when the window opened on the preview saved by the previous session.
+     */
+    public boolean isWarmStart() {
+        return warmStart;
+    }
+
+    /**
+     * Saves what the next launch needs to show this session at once: a downscaled preview of the
+     * current image, next to the journal that holds the perspectives and the history.
+     */
+    public void shutdown() {
+        Image image = imageModel.getImage();
+        if (currentImageFile != null && image != null) {
+            try {
+                BufferedImage pixels = ImageConverter.writableImageToBufferedImage(image);
+                sessionPreviews.putNow(currentImageFile, ImageConverter.scaleToFit(pixels, SESSION_PREVIEW_SIZE));
+            } catch (IOException e) {
+                System.out.println("Cannot save the session preview: " + e.getMessage());
+            }
+        }
+        try {
+            journal.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shows the preview saved for the image of the previous session, if it is still up to date, and
+     * replays the journaled edits on it right away.
+     *
+     * @return false if there is no usable preview, in which case nothing was done
+     */
+    private boolean restoreSessionPreview(CommandJournal.Session session) {
+        File imageFile = session.getImagePath() != null ? new File(session.getImagePath()) : null;
+        if (imageFile == null || !imageFile.isFile()) {
+            return false;
+        }
+        // Keyed by the size and date of the file, so an edited file is not shown with an old preview
+        PackedRaster pixels = sessionPreviews.getPacked(imageFile);
+        if (pixels == null) {
+            return false;
+        }
+        int[] size;
+        try {
+            size = ImageDecoder.readSize(imageFile);
+        } catch (IOException e) {
+            return false;
+        }
+        // Not journaled: the replay journals the views of the session again
+        bindCurrentImage(imageFile, new DecodedImage(pixels, size[0], size[1]),
+                followingThumbnails(), false);
+        refreshImageMenus();
+        session.replay(commandManager);
+        return true;
+    }
+
+    /**
+     * Decodes the image again in the background after a warm start; views still showing the saved
+     * preview switch to it, while edited ones keep their edits.
+     */
+    private void reloadAfterWarmStart(File file) {
+        fullResolutionPending = true;
+        loadProgress.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+        loadProgress.setVisible(true);
+        imageLoader.load(file, previewDecoder(), new ImageLoader.LoadListener() {
+            @Override
+            public void loaded(DecodedImage decoded) {
+                fullResolutionPending = false;
+                loadProgress.setVisible(false);
+                DecodedImage cached = workspace.getCached(file);
+                if (cached != null && !cached.isPreview()) {
+                    // The replay already decoded the full resolution, the preview would replace it
+                    decoded.discard();
+                } else {
+                    workspace.update(file, decoded);
+                    perspectiveController.updateImage(imageModel.getImage());
+                }
+                runAfterFullResolution();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                fullResolutionPending = false;
+                afterFullResolution.clear();
+                loadProgress.setVisible(false);
+                ImageLoader.LoadListener.super.failed(e);
+            }
+        });
+    }
+
+    /**
+     * Shows the images of views replayed from the journal, decoding those that are not cached
+     * first. Files that no longer exist or fail to decode leave their view as it is.
+     */
+    private final class JournalImages implements CommandJournal.ImageBinder {
+        @Override
+        public String getImagePath(Perspective perspective) {
+            File file = workspace.getFile(perspective.getImageModel());
+            return file != null ? file.getAbsolutePath() : null;
+        }
+
+        @Override
+        public void bind(String currentPath, Map<Integer, String> imagePaths, Runnable done) {
+            List<File> files = new ArrayList<>();
+            for (String path : imagePaths.values()) {
+                addExisting(files, path);
+            }
+            addExisting(files, currentPath);
+            for (File file : files) {
+                workspace.open(file);
+            }
+            refreshImageMenus();
+            decodeAll(files, 0, () -> {
+                for (Map.Entry<Integer, String> entry : imagePaths.entrySet()) {
+                    ThumbnailController thumbnailController = entry.getKey() == 1 ? thumbnailController1
+                            : entry.getKey() == 2 ? thumbnailController2 : null;
+                    DecodedImage decoded = cachedImage(entry.getValue());
+                    if (thumbnailController != null && decoded != null) {
+                        bindThumbnail(thumbnailController, new File(entry.getValue()), decoded);
+                    }
+                }
+                DecodedImage current = cachedImage(currentPath);
+                if (current != null) {
+                    bindCurrentImage(new File(currentPath), current, Collections.emptyList(), false);
+                }
+                done.run();
+            });
+        }
+
+        private void addExisting(List<File> files, String path) {
+            if (path != null && new File(path).isFile() && !files.contains(new File(path))) {
+                files.add(new File(path));
+            }
+        }
+
+        private DecodedImage cachedImage(String path) {
+            return path != null ? workspace.getCached(new File(path)) : null;
+        }
+
+        private void decodeAll(List<File> files, int index, Runnable done) {
+            if (index == files.size()) {
+                done.run();
+                return;
+            }
+            File file = files.get(index);
+            DecodedImage cached = workspace.getCached(file);
+            if (cached != null && !(replayAtFullResolution && cached.isPreview())) {
+                decodeAll(files, index + 1, done);
+                return;
+            }
+            // Filters replayed on a preview would turn the image into a low resolution one
+            ImageLoader.Decoder decoder = replayAtFullResolution ? ImageModel::decode : previewDecoder();
+            replayLoader.load(file, decoder, new ImageLoader.LoadListener() {
+                @Override
+                public void loaded(DecodedImage decoded) {
+                    workspace.update(file, decoded);
+                    decodeAll(files, index + 1, done);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    System.out.println("Failed to load journaled image " + file.getName() + ": " + e.getMessage());
+                    decodeAll(files, index + 1, done);
+                }
+            });
+        }
     }
 
     private Scene createScene() {
@@ -59,17 +292,52 @@ public class MainController {
 
         Menu fileMenu = new Menu("File");
         MenuItem loadImage = new MenuItem("Load Image");
+        MenuItem openFolder = new MenuItem("Open Folder...");
+        openFolder.setOnAction(e -> openFolder());
         MenuItem saveState = new MenuItem("Save State");
         MenuItem loadState = new MenuItem("Load State");
         MenuItem removeImage = new MenuItem("Remove Image");
-        fileMenu.getItems().addAll(loadImage, saveState, loadState, removeImage);
+        fileMenu.getItems().addAll(loadImage, openFolder, saveState, loadState, removeImage);
+
+        Menu imageMenu = new Menu("Image");
+        MenuItem nextImage = new MenuItem("Next Image");
+        nextImage.setAccelerator(new KeyCodeCombination(KeyCode.PAGE_DOWN));
+        nextImage.setOnAction(e -> showNeighbour(workspace.next(currentImageFile)));
+        MenuItem previousImage = new MenuItem("Previous Image");
+        previousImage.setAccelerator(new KeyCodeCombination(KeyCode.PAGE_UP));
+        previousImage.setOnAction(e -> showNeighbour(workspace.previous(currentImageFile)));
+        imageMenu.getItems().addAll(nextImage, previousImage);
 
         Menu editMenu = new Menu("Edit");
         MenuItem undo = new MenuItem("Undo");
         MenuItem redo = new MenuItem("Redo");
         editMenu.getItems().addAll(undo, redo);
 
-        menuBar.getMenus().addAll(fileMenu, editMenu);
+        Menu filterMenu = new Menu("Filters");
+        filterMenu.getItems().addAll(visibleAreaOnly, new SeparatorMenuItem());
+        filterMenu.getItems().addAll(
+                filterItem("Brighten", new BrightnessContrastFilter(0.1, 0)),
+                filterItem("Darken", new BrightnessContrastFilter(-0.1, 0)),
+                filterItem("More Contrast", new BrightnessContrastFilter(0, 0.2)),
+                filterItem("Less Contrast", new BrightnessContrastFilter(0, -0.2)),
+                filterItem("Stretch Levels", new LevelsFilter(16, 235, 1.0, 0, 255)),
+                filterItem("Grayscale", new GrayscaleFilter()),
+                filterItem("Gaussian Blur", new GaussianBlurFilter(2.0)),
+                filterItem("Sharpen", new SharpenFilter(1.0, 1.0)),
+                filterItem("Resize 50%", new ResizeFilter(0.5)),
+                filterItem("Resize 200%", new ResizeFilter(2.0)));
+
+        Menu viewMenu = new Menu("View");
+        CheckMenuItem collectMetrics = new CheckMenuItem("Collect Metrics");
+        collectMetrics.setSelected(Metrics.isEnabled());
+        collectMetrics.selectedProperty().addListener((obs, wasSelected, isSelected) -> Metrics.setEnabled(isSelected));
+        CheckMenuItem showOverlay = new CheckMenuItem("Performance Overlay");
+        metricsOverlay.visibleProperty().bind(showOverlay.selectedProperty());
+        MenuItem metricsReport = new MenuItem("Metrics Report...");
+        metricsReport.setOnAction(e -> showMetricsReport());
+        viewMenu.getItems().addAll(collectMetrics, showOverlay, metricsReport);
+
+        menuBar.getMenus().addAll(fileMenu, imageMenu, editMenu, filterMenu, viewMenu);
 
         perspectiveController = new PerspectiveController(perspective);
 
@@ -79,6 +347,11 @@ public class MainController {
 
         thumbnailController1 = createThumbnailController(true);
         thumbnailController2 = createThumbnailController(false);
+        // Ids are stored in the journal, they must not change between runs
+        journal.registerPerspective(1, thumbnailController1.getPerspective());
+        journal.registerPerspective(2, thumbnailController2.getPerspective());
+        journal.setImageBinder(new JournalImages());
+        commandManager.setJournal(journal);
 
         VBox thumbnail1Container = thumbnailController1.getThumbnailContainer(true);
         VBox thumbnail2Container = thumbnailController2.getThumbnailContainer(false);
@@ -104,27 +377,51 @@ public class MainController {
         thumbnail1Container.prefHeightProperty().bind(mainContainer.heightProperty());
         thumbnail2Container.prefHeightProperty().bind(mainContainer.heightProperty());
 
+        loadProgress.setVisible(false);
+        loadProgress.setMaxHeight(Double.MAX_VALUE);
+        HBox topBar = new HBox(menuBar, loadProgress, metricsOverlay);
+        metricsOverlay.setMaxHeight(Double.MAX_VALUE);
+        HBox.setHgrow(menuBar, Priority.ALWAYS);
+
+        HistoryController historyController = new HistoryController();
+
         BorderPane root = new BorderPane();
-        root.setTop(menuBar);
+        root.setTop(topBar);
         root.setCenter(mainContainer);
+        root.setRight(historyController.getView());
 
         setupMenuActions(loadImage, saveState, loadState, removeImage, undo, redo);
 
-        return new Scene(root, 900, 600);
+        return new Scene(root, 1080, 600);
+    }
+
+    /**
+     * Menu item applying the filter to the active thumbnail.
+     */
+    private MenuItem filterItem(String label, PixelFilter filter) {
+        MenuItem item = new MenuItem(label);
+        item.setOnAction(e -> {
+            if (activeThumbnailController != null) {
+                activeThumbnailController.applyFilter(filter, visibleAreaOnly.isSelected());
+            } else {
+                System.out.println("Select a thumbnail to filter.");
+            }
+        });
+        return item;
     }
 
     private ThumbnailController createThumbnailController(boolean isFirst) {
-        ThumbnailController thumbnailController = new ThumbnailController(
-            imageModel,
-            clipboardImage,
-            clipboardScaleX,
-            clipboardScaleY,
-            clipboardTranslateX,
-            clipboardTranslateY
-        );
+        // Each thumbnail has its own model, so that it can show any open image
+        ThumbnailController thumbnailController = new ThumbnailController(new ImageModel());
         thumbnailController.setOnActiveCallback(() -> {
             activeThumbnailController = thumbnailController;
         });
+        ImageModel thumbnailModel = thumbnailController.getPerspective().getImageModel();
+        thumbnailController.setOnFullResolutionNeeded(afterLoad -> loadFullResolution(thumbnailModel, afterLoad));
+        Menu showImage = new Menu("Show Image");
+        showImage.setDisable(true);
+        thumbnailController.setImageMenu(showImage);
+        imageMenus.add(showImage);
         return thumbnailController;
     }
 
@@ -150,23 +447,320 @@ public class MainController {
 
     private void loadImage() {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Open Image File");
-        File file = fileChooser.showOpenDialog(primaryStage);
-        if (file != null) {
-            currentImageFile = file;
-            imageModel.loadImageFromFile(file);
-            perspectiveController.updateImage(imageModel.getImage());
-            thumbnailController1.updateImage(imageModel.getImage());
-            thumbnailController2.updateImage(imageModel.getImage());
+        fileChooser.setTitle("Open Image Files");
+        List<File> files = fileChooser.showOpenMultipleDialog(primaryStage);
+        if (files != null && !files.isEmpty()) {
+            for (File file : files) {
+                workspace.open(file);
+            }
+            refreshImageMenus();
+            showImage(files.get(0), null);
+        }
+    }
+
+    /**
+     * Shows the latency histograms and counters in a dialog, from which they can be copied.
+     */
+    private void showMetricsReport() {
+        String report = Metrics.report();
+        TextArea text = new TextArea(report.isEmpty() ? "Nothing recorded yet." : report);
+        text.setEditable(false);
+        text.setStyle("-fx-font-family: monospace;");
+        text.setPrefColumnCount(90);
+        Alert dialog = new Alert(Alert.AlertType.INFORMATION);
+        dialog.initOwner(primaryStage);
+        dialog.setTitle("Metrics Report");
+        dialog.setHeaderText(Metrics.isEnabled() ? null : "Metrics collection is off");
+        dialog.getDialogPane().setContent(text);
+        dialog.setResizable(true);
+        dialog.show();
+    }
+
+    /**
+     * Shows the thumbnails of a folder in a separate window; double-clicking one opens the image.
+     */
+    private void openFolder() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Open Folder");
+        File directory = directoryChooser.showDialog(primaryStage);
+        if (directory == null) {
+            return;
+        }
+        if (folderBrowser == null) {
+            folderBrowser = new FolderBrowserController(file -> showImage(file, null));
+            folderStage = new Stage();
+            folderStage.initOwner(primaryStage);
+            folderStage.setScene(new Scene(folderBrowser.getView(), 800, 600));
+        }
+        folderBrowser.open(directory);
+        folderStage.setTitle(directory.getName());
+        folderStage.show();
+        folderStage.toFront();
+    }
+
+    private void showNeighbour(File file) {
+        if (file != null && !file.equals(currentImageFile)) {
+            showImage(file, null);
+        }
+    }
+
+    /**
+     * Makes the file the current image, shown by the perspective and by every thumbnail that
+     * showed the previous current image. Cached images are shown at once, others are decoded.
+     *
+     * @param afterLoad run on the JavaFX thread once the image is displayed, may be null
+     */
+    private void showImage(File file, Runnable afterLoad) {
+        workspace.open(file);
+        refreshImageMenus();
+        DecodedImage cached = workspace.getCached(file);
+        if (cached == null) {
+            loadImageAsync(file, afterLoad);
+            return;
         }
+        imageLoader.cancel();
+        imageLoading = false;
+        fullResolutionPending = false;
+        loadProgress.setVisible(false);
+        showCurrentImage(file, cached, followingThumbnails(), false);
+        if (afterLoad != null) {
+            afterLoad.run();
+        }
+    }
+
+    /**
+     * Thumbnails showing the current image, which follow it when another image becomes current.
+     */
+    private List<ThumbnailController> followingThumbnails() {
+        List<ThumbnailController> following = new ArrayList<>();
+        for (ThumbnailController thumbnailController : Arrays.asList(thumbnailController1, thumbnailController2)) {
+            if (Objects.equals(workspace.getFile(thumbnailController.getPerspective().getImageModel()),
+                    currentImageFile)) {
+                following.add(thumbnailController);
+            }
+        }
+        return following;
     }
 
+    /**
+     * Decodes the file in the background at about the size of the views, then publishes it to the
+     * model and the views. A newer call cancels the previous load.
+     *
+     * @param afterLoad run on the JavaFX thread once the image is displayed, may be null
+     */
+    private void loadImageAsync(File file, Runnable afterLoad) {
+        loadProgress.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+        loadProgress.setVisible(true);
+        fullResolutionPending = false;
+        afterFullResolution.clear();
+        // The foreground load gets the disk and the CPU to itself
+        workspace.cancelPrefetch();
+
+        List<ThumbnailController> following = followingThumbnails();
+        imageLoading = true;
+        imageLoader.loadProgressive(file, previewDecoder(), new ImageLoader.LoadListener() {
+            private boolean partialShown;
+
+            @Override
+            public void partial(DecodedImage decoded) {
+                partialShown = true;
+                imageModel.publish(decoded);
+                perspectiveController.updateImage(decoded.getImage());
+                for (ThumbnailController thumbnailController : following) {
+                    thumbnailController.getPerspective().getImageModel().publish(decoded);
+                    thumbnailController.updateImage(decoded.getImage());
+                }
+            }
+
+            @Override
+            public void loaded(DecodedImage decoded) {
+                imageLoading = false;
+                loadProgress.setVisible(false);
+                // A partial image is already on screen, possibly zoomed or moved: keep the transforms
+                showCurrentImage(file, decoded, following, partialShown);
+                if (afterLoad != null) {
+                    afterLoad.run();
+                }
+            }
+
+            @Override
+            public void progress(double fraction) {
+                loadProgress.setProgress(fraction);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                imageLoading = false;
+                loadProgress.setVisible(false);
+                System.out.println("Failed to load image: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Decodes previews that cover every view: at most about 400x500 or a third of the window, in device pixels.
+     */
+    private ImageLoader.Decoder previewDecoder() {
+        double outputScale = Math.max(1.0, primaryStage.getOutputScaleX());
+        int viewWidth = (int) (Math.max(400, perspectiveController.getView().getWidth()) * outputScale);
+        int viewHeight = (int) (Math.max(500, perspectiveController.getView().getHeight()) * outputScale);
+        return (source, readerHook) -> ImageModel.decodePreview(source, viewWidth, viewHeight, readerHook);
+    }
+
+    /**
+     * Makes the image current and journals the views. The history is kept: its commands hold the
+     * images they change, so undoing across an image switch still restores what they replaced.
+     */
+    private void showCurrentImage(File file, DecodedImage decoded, List<ThumbnailController> following,
+                                  boolean keepTransforms) {
+        bindCurrentImage(file, decoded, following, keepTransforms);
+        journal.recordViews(file.getAbsolutePath());
+    }
+
+    private void bindCurrentImage(File file, DecodedImage decoded, List<ThumbnailController> following,
+                                  boolean keepTransforms) {
+        currentImageFile = file;
+        workspace.bind(imageModel, file, decoded);
+        perspectiveController.updateImage(decoded.getImage());
+        for (ThumbnailController thumbnailController : following) {
+            workspace.bind(thumbnailController.getPerspective().getImageModel(), file, decoded);
+            if (!keepTransforms) {
+                thumbnailController.updateImage(decoded.getImage());
+            }
+        }
+        workspace.prefetchAround(file, previewDecoder());
+    }
+
+    /**
+     * Shows an open image in one thumbnail only, decoding it first if it is not cached.
+     */
+    private void showInThumbnail(ThumbnailController thumbnailController, File file) {
+        DecodedImage cached = workspace.getCached(file);
+        if (cached != null) {
+            bindThumbnail(thumbnailController, file, cached);
+            journalViews();
+            return;
+        }
+        thumbnailLoader.load(file, previewDecoder(), new ImageLoader.LoadListener() {
+            @Override
+            public void loaded(DecodedImage decoded) {
+                bindThumbnail(thumbnailController, file, decoded);
+                journalViews();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                System.out.println("Failed to load image: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void bindThumbnail(ThumbnailController thumbnailController, File file, DecodedImage decoded) {
+        workspace.bind(thumbnailController.getPerspective().getImageModel(), file, decoded);
+        thumbnailController.updateImage(decoded.getImage());
+    }
+
+    /**
+     * Journals which image each view shows, keeping the history.
+     */
+    private void journalViews() {
+        journal.recordViews(currentImageFile != null ? currentImageFile.getAbsolutePath() : null);
+    }
+
+    private void refreshImageMenus() {
+        for (ThumbnailController thumbnailController : Arrays.asList(thumbnailController1, thumbnailController2)) {
+            Menu showImage = imageMenus.get(thumbnailController == thumbnailController1 ? 0 : 1);
+            showImage.getItems().clear();
+            for (File file : workspace.getFiles()) {
+                MenuItem item = new MenuItem(file.getName());
+                item.setOnAction(e -> showInThumbnail(thumbnailController, file));
+                showImage.getItems().add(item);
+            }
+            showImage.setDisable(showImage.getItems().isEmpty());
+        }
+    }
+
+    /**
+     * Replaces the preview shown by the model by the full-resolution decode of its file, keeping
+     * the transforms of every view. Called when a view zooms past the preview's resolution, or
+     * before filtering it.
+     *
+     * @param afterLoad run on the JavaFX thread once the full resolution is shown, may be null
+     */
+    private void loadFullResolution(ImageModel model, Runnable afterLoad) {
+        File file = workspace.getFile(model);
+        if (file == null || !model.isPreview()) {
+            return;
+        }
+        if (imageLoading) {
+            if (afterLoad != null) {
+                System.out.println("The image is still loading.");
+            }
+            return;
+        }
+        if (afterLoad != null) {
+            afterFullResolution.add(afterLoad);
+        }
+        if (fullResolutionPending) {
+            return;
+        }
+        fullResolutionPending = true;
+        imageLoader.load(file, new ImageLoader.LoadListener() {
+            @Override
+            public void loaded(DecodedImage decoded) {
+                fullResolutionPending = false;
+                // Every model still showing the cached preview switches to the full resolution
+                workspace.update(file, decoded);
+                perspectiveController.updateImage(imageModel.getImage());
+                runAfterFullResolution();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                fullResolutionPending = false;
+                afterFullResolution.clear();
+                ImageLoader.LoadListener.super.failed(e);
+            }
+        });
+    }
+
+    /**
+     * Runs what waited for the full resolution. Each task checks the image again: one whose model
+     * still shows a preview, e.g. of another file, asks for its full resolution in turn.
+     */
+    private void runAfterFullResolution() {
+        List<Runnable> tasks = new ArrayList<>(afterFullResolution);
+        afterFullResolution.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * Closes the current image, emptying every view that shows it.
+     */
     private void removeImage() {
-        imageModel.setImage(null);
+        imageLoader.cancel();
+        imageLoading = false;
+        fullResolutionPending = false;
+        afterFullResolution.clear();
+        loadProgress.setVisible(false);
+        List<ThumbnailController> following = followingThumbnails();
+        workspace.unbind(imageModel);
         perspectiveController.updateImage(null);
-        thumbnailController1.updateImage(null);
-        thumbnailController2.updateImage(null);
+        for (ThumbnailController thumbnailController : following) {
+            workspace.unbind(thumbnailController.getPerspective().getImageModel());
+            thumbnailController.updateImage(null);
+        }
+        if (currentImageFile != null) {
+            workspace.close(currentImageFile);
+            refreshImageMenus();
+        }
         currentImageFile = null;
+        commandManager.clear();
+        journal.snapshot(null);
     }
 
     private void saveState() {
@@ -175,30 +769,22 @@ public class MainController {
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("State Files", "*.perspective"));
         File file = fileChooser.showSaveDialog(primaryStage);
         if (file != null) {
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-                String imagePath = null;
-                if (currentImageFile != null) {
-                    imagePath = currentImageFile.getAbsolutePath();
-                }
-                oos.writeObject(imagePath);
-
-                ImageView thumbnailView1 = thumbnailController1.getThumbnailView();
-                AppState thumbnail1State = new AppState(
-                    thumbnailView1.getScaleX(),
-                    thumbnailView1.getTranslateX(),
-                    thumbnailView1.getTranslateY(),
-                    new Point((int) thumbnailView1.getTranslateX(), (int) thumbnailView1.getTranslateY())
-                );
-                oos.writeObject(thumbnail1State);
-
-                ImageView thumbnailView2 = thumbnailController2.getThumbnailView();
-                AppState thumbnail2State = new AppState(
-                    thumbnailView2.getScaleX(),
-                    thumbnailView2.getTranslateX(),
-                    thumbnailView2.getTranslateY(),
-                    new Point((int) thumbnailView2.getTranslateX(), (int) thumbnailView2.getTranslateY())
-                );
-                oos.writeObject(thumbnail2State);
+            String imagePath = null;
+            if (currentImageFile != null) {
+                imagePath = currentImageFile.getAbsolutePath();
+            }
+            List<AppState> states = new ArrayList<>();
+            for (ThumbnailController thumbnailController : Arrays.asList(thumbnailController1, thumbnailController2)) {
+                ImageView thumbnailView = thumbnailController.getThumbnailView();
+                states.add(new AppState(
+                    thumbnailView.getScaleX(),
+                    thumbnailView.getTranslateX(),
+                    thumbnailView.getTranslateY(),
+                    new Point((int) thumbnailView.getTranslateX(), (int) thumbnailView.getTranslateY())
+                ));
+            }
+            try {
+                new StateFile(imagePath, states).write(file.toPath());
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -211,35 +797,35 @@ public class MainController {
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("State Files", "*.perspective"));
         File file = fileChooser.showOpenDialog(primaryStage);
         if (file != null) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                String imagePath = (String) ois.readObject();
-                AppState thumbnail1State = (AppState) ois.readObject();
-                AppState thumbnail2State = (AppState) ois.readObject();
-                if (imagePath != null) {
-                    File imageFile = new File(imagePath);
-                    if (imageFile.exists()) {
-                        currentImageFile = imageFile;
-                        imageModel.loadImageFromFile(imageFile);
-                        perspectiveController.updateImage(imageModel.getImage());
-                        thumbnailController1.updateImage(imageModel.getImage());
-                        thumbnailController2.updateImage(imageModel.getImage());
+            try {
+                StateFile stateFile = StateFile.read(file.toPath());
+                List<AppState> states = stateFile.getStates();
+                Runnable applyStates = () -> {
+                    if (states.size() > 0) {
+                        applyState(thumbnailController1, states.get(0));
                     }
+                    if (states.size() > 1) {
+                        applyState(thumbnailController2, states.get(1));
+                    }
+                };
+                String imagePath = stateFile.getImagePath();
+                File imageFile = imagePath != null ? new File(imagePath) : null;
+                if (imageFile != null && imageFile.exists()) {
+                    showImage(imageFile, applyStates);
+                } else {
+                    applyStates.run();
                 }
-
-                ImageView thumbnailView1 = thumbnailController1.getThumbnailView();
-                thumbnailView1.setScaleX(thumbnail1State.getScaleFactor());
-                thumbnailView1.setScaleY(thumbnail1State.getScaleFactor());
-                thumbnailView1.setTranslateX(thumbnail1State.getTranslateX());
-                thumbnailView1.setTranslateY(thumbnail1State.getTranslateY());
-
-                ImageView thumbnailView2 = thumbnailController2.getThumbnailView();
-                thumbnailView2.setScaleX(thumbnail2State.getScaleFactor());
-                thumbnailView2.setScaleY(thumbnail2State.getScaleFactor());
-                thumbnailView2.setTranslateX(thumbnail2State.getTranslateX());
-                thumbnailView2.setTranslateY(thumbnail2State.getTranslateY());
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
     }
+
+    private void applyState(ThumbnailController thumbnailController, AppState state) {
+        ImageView thumbnailView = thumbnailController.getThumbnailView();
+        thumbnailView.setScaleX(state.getScaleFactor());
+        thumbnailView.setScaleY(state.getScaleFactor());
+        thumbnailView.setTranslateX(state.getTranslateX());
+        thumbnailView.setTranslateY(state.getTranslateY());
+    }
 }
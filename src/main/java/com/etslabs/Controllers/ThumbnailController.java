@@ -1,19 +1,31 @@
 package com.etslabs.Controllers;
 
 import java.awt.Point;
+import java.util.function.Consumer;
 
 import com.etslabs.Commands.CommandManager;
+import com.etslabs.Commands.FilterCommand;
 import com.etslabs.Commands.PasteCommand;
 import com.etslabs.Commands.TranslateCommand;
 import com.etslabs.Commands.ZoomCommand;
+import com.etslabs.Interfaces.PixelFilter;
+import com.etslabs.Metrics.Metrics;
+import com.etslabs.Metrics.RepaintEvent;
+import com.etslabs.Models.ImageClipboard;
 import com.etslabs.Models.ImageModel;
 import com.etslabs.Models.Perspective;
-
-import javafx.animation.PauseTransition; // Ajouté
-import javafx.beans.property.DoubleProperty;
-import javafx.beans.property.ObjectProperty;
+import com.etslabs.Models.TilePrefetcher;
+import com.etslabs.Models.TiledImage;
+import com.etslabs.Processing.PixelEngine;
+import com.etslabs.Views.PulseScheduler;
+
+import javafx.application.Platform;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.control.Button;
 import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -23,37 +35,28 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.shape.Rectangle;
-import javafx.util.Duration; // Ajouté
 
 public class ThumbnailController {
     private final ImageView thumbnailView = new ImageView();
+    private final ImageView detailView = new ImageView();
+    private StackPane thumbnailPane;
+    // Rendering the detail tiles is costly, so it is done at most once per pulse
+    private final Runnable refreshDetailTask = this::refreshDetail;
     private final Perspective perspective; 
     private final CommandManager commandManager = CommandManager.getInstance();
     private double dragStartX, dragStartY;
+    // Keeps the image moving after a quick drag; the fling is merged into the drag's history entry
+    private final KineticPan kineticPan = new KineticPan(this::fling, commandManager::endMerge);
+    private final TilePrefetcher tilePrefetcher = new TilePrefetcher();
+    // How far ahead of a pan the tiles are decoded, in seconds of the current velocity
+    private static final double PREFETCH_LOOKAHEAD_SECONDS = 0.5;
 
-    private final ObjectProperty<Image> clipboardImage;
-    private final DoubleProperty clipboardScaleX;
-    private final DoubleProperty clipboardScaleY;
-    private final DoubleProperty clipboardTranslateX;
-    private final DoubleProperty clipboardTranslateY;
-
-    // Variables pour regrouper les actions de zoom et drag
-    private PauseTransition pauseTransition; // Ajouté
-    private double cumulativeZoomFactor = 1.0; // Ajouté pour accumuler le zoom
-    private double cumulativeOffsetX = 0.0;    // Ajouté pour accumuler le déplacement en X
-    private double cumulativeOffsetY = 0.0;    // Ajouté pour accumuler le déplacement en Y
-
-    public ThumbnailController(ImageModel imageModel,
-                               ObjectProperty<Image> clipboardImage,
-                               DoubleProperty clipboardScaleX, DoubleProperty clipboardScaleY,
-                               DoubleProperty clipboardTranslateX, DoubleProperty clipboardTranslateY) {
-        this.clipboardImage = clipboardImage;
-        this.clipboardScaleX = clipboardScaleX;
-        this.clipboardScaleY = clipboardScaleY;
-        this.clipboardTranslateX = clipboardTranslateX;
-        this.clipboardTranslateY = clipboardTranslateY;
+    private final ImageClipboard clipboard = ImageClipboard.getInstance();
 
+    public ThumbnailController(ImageModel imageModel) {
         this.perspective = new Perspective(imageModel);
+        // Keeps the view in sync whatever changed the perspective: commands, undo/redo or history jumps
+        this.perspective.subscribeOnFxThread(this::applyPerspectiveToThumbnail);
         initialize();
     }
 
@@ -62,7 +65,9 @@ public class ThumbnailController {
         thumbnailView.setFitWidth(400);
         thumbnailView.setFitHeight(500);
 
-        StackPane thumbnailPane = new StackPane(thumbnailView);
+        detailView.setManaged(false);
+        detailView.setMouseTransparent(true);
+        thumbnailPane = new StackPane(thumbnailView, detailView);
         thumbnailPane.setPrefSize(400, 500);
 
         Rectangle clip = new Rectangle(400, 500);
@@ -92,6 +97,9 @@ public class ThumbnailController {
         copyItem.setOnAction(e -> handleCopy());
         pasteItem.setOnAction(e -> handlePaste());
         contextMenu.getItems().addAll(copyItem, pasteItem);
+        if (imageMenu != null) {
+            contextMenu.getItems().add(imageMenu);
+        }
 
         thumbnailView.setOnContextMenuRequested(event -> {
             contextMenu.show(thumbnailView, event.getScreenX(), event.getScreenY());
@@ -115,112 +123,186 @@ public class ThumbnailController {
     }
 
     private void initialize() {
-        // Initialisation du PauseTransition pour regrouper les actions
-        pauseTransition = new PauseTransition(Duration.millis(300)); // Ajouté
-        pauseTransition.setOnFinished(event -> commitCommands()); // Ajouté
-
+        // Chaque événement est appliqué tout de suite; le CommandManager fusionne les commandes
+        // d'un même geste en une seule entrée d'historique
         thumbnailView.setOnMousePressed(event -> {
+            kineticPan.press(event.getSceneX(), event.getSceneY());
+            commandManager.endMerge();
             dragStartX = event.getSceneX();
             dragStartY = event.getSceneY();
             notifyActive(); 
         });
 
-        // On accumule le déplacement au lieu de créer une commande immédiate
         thumbnailView.setOnMouseDragged(event -> {
-            double offsetX = event.getSceneX() - dragStartX;
-            double offsetY = event.getSceneY() - dragStartY;
-
-            dragStartX = event.getSceneX();
-            dragStartY = event.getSceneY();
-
-            // Accumulation du déplacement
-            cumulativeOffsetX += offsetX;
-            cumulativeOffsetY += offsetY;
-
-            // Mise à jour visuelle temporaire du déplacement
-            thumbnailView.setTranslateX(thumbnailView.getTranslateX() + offsetX);
-            thumbnailView.setTranslateY(thumbnailView.getTranslateY() + offsetY);
-
-            // Redémarrage du PauseTransition
-            pauseTransition.stop();
-            pauseTransition.playFromStart();
-
+            Metrics.INPUT_EVENTS.increment();
+            kineticPan.drag(event.getSceneX(), event.getSceneY());
+            // Only whole pixels are applied, the remainder is kept for the next event
+            int offsetX = (int) (event.getSceneX() - dragStartX);
+            int offsetY = (int) (event.getSceneY() - dragStartY);
+            if (offsetX != 0 || offsetY != 0) {
+                dragStartX += offsetX;
+                dragStartY += offsetY;
+                commandManager.executeCommand(new TranslateCommand(perspective, offsetX, offsetY));
+            }
             notifyActive();
         });
 
         thumbnailView.setOnMouseReleased(event -> {
-            System.out.println("Drag completed. Final translation applied: X=" 
-                               + thumbnailView.getTranslateX() 
-                               + ", Y=" + thumbnailView.getTranslateY());
-
-            // Lâcher la souris signifie potentiellement la fin du drag
-            pauseTransition.stop();
-            pauseTransition.playFromStart();
+            if (!kineticPan.release()) {
+                commandManager.endMerge();
+            }
         });
     }
 
+    private void fling(int offsetX, int offsetY) {
+        commandManager.executeCommand(new TranslateCommand(perspective, offsetX, offsetY));
+    }
+
     private void onScroll(ScrollEvent e) {
+        Metrics.INPUT_EVENTS.increment();
+        kineticPan.stop();
         double zoomFactor = e.getDeltaY() > 0 ? 1.1 : 0.9;
 
-        // Accumuler le facteur de zoom au lieu d'exécuter immédiatement une commande
-        cumulativeZoomFactor *= zoomFactor;
-        System.out.println("Scrolled with zoomFactor: " + zoomFactor + ", cumulativeZoomFactor: " + cumulativeZoomFactor);
-
-        // Mise à jour visuelle temporaire du zoom
-        thumbnailView.setScaleX(perspective.getScaleFactor() * cumulativeZoomFactor);
-        thumbnailView.setScaleY(perspective.getScaleFactor() * cumulativeZoomFactor);
-
-        // Redémarrer le PauseTransition à chaque scroll
-        pauseTransition.stop();
-        pauseTransition.playFromStart();
+        double newScaleFactor = Math.max(0.1, Math.min(perspective.getScaleFactor() * zoomFactor, 5.0));
+        commandManager.executeCommand(new ZoomCommand(perspective, newScaleFactor));
 
         notifyActive(); 
     }
 
-    // Méthode modifiée pour intégrer la logique de regroupement
-    private void commitCommands() { // Ajouté
-        // Créer une commande Zoom si on a zoomé
-        if (cumulativeZoomFactor != 1.0) {
-            double newScaleFactor = Math.max(0.1, Math.min(perspective.getScaleFactor() * cumulativeZoomFactor, 5.0));
-            System.out.println("Committing Zoom Command with factor: " + newScaleFactor);
-            ZoomCommand zoomCommand = new ZoomCommand(perspective, newScaleFactor);
-            commandManager.executeCommand(zoomCommand);
-            cumulativeZoomFactor = 1.0;
-            applyPerspectiveToThumbnail();
-        }
-
-        // Créer une commande Translate si on a déplacé
-        if (cumulativeOffsetX != 0.0 || cumulativeOffsetY != 0.0) {
-            System.out.println("Committing Translate Command with offsetX: " + cumulativeOffsetX + ", offsetY: " + cumulativeOffsetY);
-            TranslateCommand translateCommand = new TranslateCommand(perspective, cumulativeOffsetX, cumulativeOffsetY);
-            commandManager.executeCommand(translateCommand);
-            cumulativeOffsetX = 0.0;
-            cumulativeOffsetY = 0.0;
-            applyPerspectiveToThumbnail();
-        }
-    }
-
     private void executeZoomCommand(double zoomFactor) {
         double newScaleFactor = Math.max(0.1, Math.min(perspective.getScaleFactor() * zoomFactor, 5.0));
         ZoomCommand zoomCommand = new ZoomCommand(perspective, newScaleFactor);
+        kineticPan.stop();
+        commandManager.endMerge();
         commandManager.executeCommand(zoomCommand); 
-        applyPerspectiveToThumbnail();
+        commandManager.endMerge();
     }
 
     private void applyPerspectiveToThumbnail() {
+        // The model may get another image from a paste, an undo or the workspace
+        Image current = perspective.getImageModel().getImage();
+        if (thumbnailView.getImage() != current) {
+            thumbnailView.setImage(current);
+        }
         thumbnailView.setScaleX(perspective.getScaleFactor());
         thumbnailView.setScaleY(perspective.getScaleFactor());
         thumbnailView.setTranslateX(perspective.getTranslation().getX());
         thumbnailView.setTranslateY(perspective.getTranslation().getY());
+        PulseScheduler.schedule(refreshDetailTask);
+        requestFullResolutionIfNeeded();
+    }
+
+    /**
+     * Asks for the full-resolution image once the zoom shows a preview's pixels larger than 1:1.
+     */
+    private void requestFullResolutionIfNeeded() {
+        Image shown = thumbnailView.getImage();
+        if (shown == null || onFullResolutionNeeded == null
+                || shown != perspective.getImageModel().getImage() || !perspective.getImageModel().isPreview()) {
+            return;
+        }
+        double outputScale = thumbnailView.getScene() != null && thumbnailView.getScene().getWindow() != null
+                ? thumbnailView.getScene().getWindow().getOutputScaleX() : 1.0;
+        double screenPixels = thumbnailView.getLayoutBounds().getWidth() * thumbnailView.getScaleX() * outputScale;
+        if (screenPixels > shown.getWidth()) {
+            onFullResolutionNeeded.accept(null);
+        }
+    }
+
+    /**
+     * For tiled images, overlays the visible part of the thumbnail with tiles from the pyramid level
+     * matching the current zoom, so that only what the viewport shows is decoded.
+     */
+    private void refreshDetail() {
+        long start = Metrics.now();
+        RepaintEvent event = new RepaintEvent();
+        event.begin();
+        renderDetail();
+        event.end();
+        if (event.shouldCommit()) {
+            event.view = "Thumbnail detail";
+            event.partial = true;
+            event.commit();
+        }
+        Metrics.REPAINT.recordSince(start);
+    }
+
+    private void renderDetail() {
+        TiledImage tiledImage = perspective.getImageModel().getTiledImage();
+        Image overview = thumbnailView.getImage();
+        if (tiledImage == null || overview == null || overview != tiledImage.getOverview()
+                || thumbnailPane == null || thumbnailPane.getWidth() <= 0) {
+            hideDetail();
+            return;
+        }
+
+        Bounds fitted = thumbnailView.getLayoutBounds();
+        double screenPerSource = fitted.getWidth() * thumbnailView.getScaleX() / tiledImage.getWidth();
+        if (screenPerSource * tiledImage.getWidth() <= overview.getWidth()) {
+            // The overview already has enough pixels for this zoom level
+            hideDetail();
+            return;
+        }
+
+        Bounds imageInPane = thumbnailView.getBoundsInParent();
+        double minX = Math.max(0, imageInPane.getMinX());
+        double minY = Math.max(0, imageInPane.getMinY());
+        double maxX = Math.min(thumbnailPane.getWidth(), imageInPane.getMaxX());
+        double maxY = Math.min(thumbnailPane.getHeight(), imageInPane.getMaxY());
+        if (maxX <= minX || maxY <= minY) {
+            hideDetail();
+            return;
+        }
+
+        Bounds visible = thumbnailView.parentToLocal(new BoundingBox(minX, minY, maxX - minX, maxY - minY));
+        double toSource = tiledImage.getWidth() / fitted.getWidth();
+        Rectangle2D region = new Rectangle2D(
+                (visible.getMinX() - fitted.getMinX()) * toSource,
+                (visible.getMinY() - fitted.getMinY()) * toSource,
+                visible.getWidth() * toSource,
+                visible.getHeight() * toSource);
+        int outputWidth = (int) Math.ceil(maxX - minX);
+        int outputHeight = (int) Math.ceil(maxY - minY);
+
+        // Tiles are never decoded here: missing ones show a coarser level, or the overview, until
+        // the prefetcher has decoded them and schedules another refresh
+        int level = tiledImage.levelForScale(outputWidth / region.getWidth());
+        Rectangle2D predicted = predictRegion(region, thumbnailView.getScaleX() / toSource);
+        if (!tiledImage.isCached(region, level) || (predicted != null && !tiledImage.isCached(predicted, level))) {
+            tilePrefetcher.request(tiledImage, level, region, predicted,
+                    () -> PulseScheduler.schedule(refreshDetailTask));
+        }
+        detailView.setImage(tiledImage.renderCachedRegion(region, outputWidth, outputHeight));
+        detailView.relocate(minX, minY);
+    }
+
+    /**
+     * Region expected to be visible shortly: the visible region moved along the current drag or
+     * fling, which pans the image the other way, or null when the image is not moving.
+     *
+     * @param screenPerSource screen pixels per full-resolution pixel
+     */
+    private Rectangle2D predictRegion(Rectangle2D region, double screenPerSource) {
+        double shiftX = -kineticPan.getVelocityX() * PREFETCH_LOOKAHEAD_SECONDS / screenPerSource;
+        double shiftY = -kineticPan.getVelocityY() * PREFETCH_LOOKAHEAD_SECONDS / screenPerSource;
+        if (shiftX == 0 && shiftY == 0) {
+            return null;
+        }
+        // Covers the whole path, so that no tile between here and there is skipped
+        double minX = Math.min(region.getMinX(), region.getMinX() + shiftX);
+        double minY = Math.min(region.getMinY(), region.getMinY() + shiftY);
+        return new Rectangle2D(minX, minY, region.getWidth() + Math.abs(shiftX), region.getHeight() + Math.abs(shiftY));
+    }
+
+    private void hideDetail() {
+        tilePrefetcher.cancel();
+        detailView.setImage(null);
     }
 
     private void handleCopy() {
         if (thumbnailView.getImage() != null) {
-            clipboardImage.set(thumbnailView.getImage());
-            clipboardScaleX.set(thumbnailView.getScaleX());
-            clipboardScaleY.set(thumbnailView.getScaleY());
-            clipboardTranslateX.set(thumbnailView.getTranslateX());
-            clipboardTranslateY.set(thumbnailView.getTranslateY());
+            clipboard.copy(thumbnailView.getImage(), thumbnailView.getScaleX(),
+                    new Point((int) thumbnailView.getTranslateX(), (int) thumbnailView.getTranslateY()));
             System.out.println("Image and state copied to clipboard.");
         } else {
             System.out.println("No image to copy.");
@@ -228,17 +310,14 @@ public class ThumbnailController {
     }
 
     private void handlePaste() {
-        if (clipboardImage.get() != null) {
-            Image pastedImage = clipboardImage.get();
-            double pastedScaleFactor = clipboardScaleX.get(); 
-            Point pastedTranslation = new Point(
-                (int) clipboardTranslateX.get(),
-                (int) clipboardTranslateY.get()
-            );
+        Image pastedImage = clipboard.getImage();
+        if (pastedImage != null) {
+            double pastedScaleFactor = clipboard.getScaleFactor();
+            Point pastedTranslation = clipboard.getTranslation();
 
             PasteCommand pasteCommand = new PasteCommand(perspective, pastedImage, pastedScaleFactor, pastedTranslation);
+            kineticPan.stop();
             commandManager.executeCommand(pasteCommand); 
-            applyPerspectiveToThumbnail();
 
             System.out.println("Image and state pasted to thumbnail.");
         } else {
@@ -246,16 +325,97 @@ public class ThumbnailController {
         }
     }
 
+    /**
+     * Applies a pixel filter to the image of this thumbnail, as one undoable step. A preview is
+     * replaced by the full resolution first, and the filter runs on the pixel engine's pool; the
+     * result is shown once it is ready, if the thumbnail still shows the image it was computed from.
+     *
+     * @param visibleAreaOnly filter only the part of the image the thumbnail shows
+     */
+    public void applyFilter(PixelFilter filter, boolean visibleAreaOnly) {
+        ImageModel model = perspective.getImageModel();
+        Image image = model.getImage();
+        if (image == null) {
+            System.out.println("No image to filter.");
+            return;
+        }
+        if (model.isPreview()) {
+            // Filtering the preview would replace the image by a low resolution one for good
+            if (onFullResolutionNeeded != null) {
+                System.out.println("Loading the full resolution before filtering.");
+                onFullResolutionNeeded.accept(() -> applyFilter(filter, visibleAreaOnly));
+            } else {
+                System.out.println("Cannot filter a preview.");
+            }
+            return;
+        }
+        java.awt.Rectangle region = null;
+        if (visibleAreaOnly) {
+            region = getVisibleRegion();
+            if (region == null) {
+                System.out.println("No part of the image is visible.");
+                return;
+            }
+        }
+        kineticPan.stop();
+        FilterCommand command = new FilterCommand(perspective, filter, region);
+        PixelEngine.getInstance().submit(() -> {
+            try {
+                command.prepare(image);
+            } catch (RuntimeException e) {
+                System.out.println("Failed to apply filter: " + e.getMessage());
+                e.printStackTrace();
+                return;
+            }
+            Platform.runLater(() -> {
+                if (model.getImage() != image) {
+                    System.out.println("The image changed while filtering, the filter was not applied.");
+                    command.discard();
+                    return;
+                }
+                commandManager.endMerge();
+                commandManager.executeCommand(command);
+                commandManager.endMerge();
+            });
+        });
+    }
+
+    /**
+     * Part of the image shown in the thumbnail, in image pixels, or null if none is.
+     */
+    private java.awt.Rectangle getVisibleRegion() {
+        Image image = thumbnailView.getImage();
+        if (image == null || thumbnailPane == null) {
+            return null;
+        }
+        Bounds imageInPane = thumbnailView.getBoundsInParent();
+        double minX = Math.max(0, imageInPane.getMinX());
+        double minY = Math.max(0, imageInPane.getMinY());
+        double maxX = Math.min(thumbnailPane.getWidth(), imageInPane.getMaxX());
+        double maxY = Math.min(thumbnailPane.getHeight(), imageInPane.getMaxY());
+        if (maxX <= minX || maxY <= minY) {
+            return null;
+        }
+        Bounds fitted = thumbnailView.getLayoutBounds();
+        Bounds visible = thumbnailView.parentToLocal(new BoundingBox(minX, minY, maxX - minX, maxY - minY));
+        double toImage = image.getWidth() / fitted.getWidth();
+        int x = (int) Math.floor((visible.getMinX() - fitted.getMinX()) * toImage);
+        int y = (int) Math.floor((visible.getMinY() - fitted.getMinY()) * toImage);
+        return new java.awt.Rectangle(x, y,
+                (int) Math.ceil((visible.getMaxX() - fitted.getMinX()) * toImage) - x,
+                (int) Math.ceil((visible.getMaxY() - fitted.getMinY()) * toImage) - y);
+    }
+
     public void undo() {
         System.out.println("Undo called.");
+        kineticPan.stop();
         commandManager.undo();
-        applyPerspectiveToThumbnail();
     }
 
     public void redo() {
         System.out.println("Redo called.");
+        kineticPan.stop();
         commandManager.redo();
-        applyPerspectiveToThumbnail(); 
     }
 
     public void updateImage(Image image) {
@@ -269,7 +429,29 @@ public class ThumbnailController {
         return thumbnailView;
     }
 
+    public Perspective getPerspective() {
+        return perspective;
+    }
+
     private Runnable onActiveCallback;
+    private Consumer<Runnable> onFullResolutionNeeded;
+    private Menu imageMenu;
+
+    /**
+     * Adds a submenu to the context menu, e.g. to pick which open image the thumbnail shows.
+     * Must be called before {@link #getThumbnailContainer}.
+     */
+    public void setImageMenu(Menu imageMenu) {
+        this.imageMenu = imageMenu;
+    }
+
+    /**
+     * Sets what loads the full resolution of a preview. It gets what to run once the full resolution
+     * is shown, or null.
+     */
+    public void setOnFullResolutionNeeded(Consumer<Runnable> onFullResolutionNeeded) {
+        this.onFullResolutionNeeded = onFullResolutionNeeded;
+    }
 
     public void setOnActiveCallback(Runnable onActiveCallback) {
         this.onActiveCallback = onActiveCallback;
@@ -278,7 +460,6 @@ public class ThumbnailController {
     private void notifyActive() {
         if (onActiveCallback != null) {
             onActiveCallback.run();
-            System.out.println("Thumbnail set as active.");
         }
     }
 }
@@ -1,34 +1,124 @@
 package com.etslabs.Converter;
 
 import javafx.scene.image.WritableImage;
-import javafx.scene.image.PixelWriter;
 import javafx.scene.image.PixelFormat;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import javafx.scene.image.PixelReader;
 
+import com.etslabs.Metrics.ConversionEvent;
+import com.etslabs.Metrics.Metrics;
+
 public class ImageConverter {
 
+    /**
+     * Returns a JavaFX image for the given AWT image. A {@code TYPE_INT_ARGB_PRE} image with a plain
+     * raster is shared as is, so later writes to it show up in the returned image after
+     * {@link SharedPixelBuffer#markDirty()}. Any other image is converted once, in bulk, into a
+     * fresh shared buffer.
+     */
     public static WritableImage bufferedImageToWritableImage(BufferedImage bufferedImage) {
-        WritableImage writableImage = new WritableImage(bufferedImage.getWidth(), bufferedImage.getHeight());
-        PixelWriter pixelWriter = writableImage.getPixelWriter();
-        int[] rgbData = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+        long start = Metrics.now();
+        ConversionEvent event = new ConversionEvent();
+        event.begin();
+        SharedPixelBuffer shared = SharedPixelBuffer.wrap(bufferedImage);
+        boolean zeroCopy = shared != null;
+        if (shared == null) {
+            shared = SharedPixelBuffer.allocate(bufferedImage.getWidth(), bufferedImage.getHeight());
+            Graphics2D g = shared.getBufferedImage().createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(bufferedImage, 0, 0, null);
+            g.dispose();
+        }
+        commit(event, "AWT to JavaFX", bufferedImage.getWidth(), bufferedImage.getHeight(), zeroCopy);
+        Metrics.CONVERSION.recordSince(start);
+        return shared.getFxImage();
+    }
+
+    /**
+     * Returns a JavaFX image of packed pixels, expanded to premultiplied ARGB row by row. ARGB
+     * rasters are shared as is.
+     */
+    public static WritableImage packedRasterToWritableImage(PackedRaster raster) {
+        long start = Metrics.now();
+        ConversionEvent event = new ConversionEvent();
+        event.begin();
+        SharedPixelBuffer shared = raster.toSharedPixelBuffer();
+        commit(event, "Packed to JavaFX", raster.getWidth(), raster.getHeight(),
+                raster.getStorage() == PackedRaster.Storage.ARGB);
+        Metrics.CONVERSION.recordSince(start);
+        return shared.getFxImage();
+    }
+
+    /**
+     * Fits the image in a square of {@code maxSize} pixels, without enlarging it, into a new shared
+     * buffer. Filtering is bilinear, which only blends neighbouring source pixels: a source more
+     * than twice the target size is first halved as many times as needed, so that every source
+     * pixel still counts and the result is not aliased.
+     */
+    public static SharedPixelBuffer scaleToFit(BufferedImage source, int maxSize) {
+        double scale = Math.min(1.0, (double) maxSize / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage reduced = source;
+        while (reduced.getWidth() >= 2 * width && reduced.getHeight() >= 2 * height) {
+            BufferedImage half = new BufferedImage(reduced.getWidth() / 2, reduced.getHeight() / 2,
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+            drawScaled(reduced, half, half.getWidth(), half.getHeight());
+            reduced = half;
+        }
+        SharedPixelBuffer scaled = SharedPixelBuffer.allocate(width, height);
+        drawScaled(reduced, scaled.getBufferedImage(), width, height);
+        return scaled;
+    }
 
-        pixelWriter.setPixels(0, 0, bufferedImage.getWidth(), bufferedImage.getHeight(),
-                PixelFormat.getIntArgbInstance(), rgbData, 0, bufferedImage.getWidth());
-        return writableImage;
+    private static void drawScaled(BufferedImage source, BufferedImage target, int width, int height) {
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
     }
 
+    /**
+     * Returns an AWT image for the given JavaFX image. Images backed by a {@link SharedPixelBuffer}
+     * come back without any copy (as {@code TYPE_INT_ARGB_PRE}); others are read in one bulk transfer.
+     */
     public static BufferedImage writableImageToBufferedImage(javafx.scene.image.Image fxImage) {
+        long start = Metrics.now();
+        ConversionEvent event = new ConversionEvent();
+        event.begin();
+        SharedPixelBuffer shared = SharedPixelBuffer.of(fxImage);
+        if (shared != null) {
+            commit(event, "JavaFX to AWT", shared.getWidth(), shared.getHeight(), true);
+            Metrics.CONVERSION.recordSince(start);
+            return shared.getBufferedImage();
+        }
         int width = (int) fxImage.getWidth();
         int height = (int) fxImage.getHeight();
         BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] data = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
         PixelReader pixelReader = fxImage.getPixelReader();
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                bufferedImage.setRGB(x, y, pixelReader.getArgb(x, y));
-            }
-        }
+        pixelReader.getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), data, 0, width);
+        commit(event, "JavaFX to AWT", width, height, false);
+        Metrics.CONVERSION.recordSince(start);
         return bufferedImage;
     }
+
+    private static void commit(ConversionEvent event, String direction, int width, int height, boolean zeroCopy) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.direction = direction;
+            event.width = width;
+            event.height = height;
+            event.zeroCopy = zeroCopy;
+            event.commit();
+        }
+    }
 }
@@ -0,0 +1,283 @@
+package com.etslabs.Converter;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.IOException;
+
+/**
+ * Pixels of an image in the narrowest storage that holds them exactly: one byte per pixel for
+ * gray and palette images, three for opaque colour images, and premultiplied ARGB ints only when
+ * there is transparency. The layouts are those of the JavaFX {@code BYTE_INDEXED}, {@code BYTE_RGB}
+ * and {@code INT_ARGB_PRE} pixel formats, gray being an index into a gray ramp.
+ *
+ * <p>A raster is immutable. It is expanded to premultiplied ARGB a row at a time, into a
+ * {@link SharedPixelBuffer} for display or straight into a file, so that no intermediate full-size
+ * copy is made.
+ */
+public final class PackedRaster {
+    /**
+     * How the pixels are stored, from the narrowest to the widest.
+     */
+    public enum Storage {
+        GRAY(1), INDEXED(1), RGB(3), ARGB(4);
+
+        private final int bytesPerPixel;
+
+        Storage(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        public int getBytesPerPixel() {
+            return bytesPerPixel;
+        }
+    }
+
+    // Rows converted at once when packing an AWT image through Java2D
+    private static final int STRIP_ROWS = 64;
+
+    private final Storage storage;
+    private final int width;
+    private final int height;
+    private final byte[] bytes;
+    // Premultiplied ARGB colours of the indexes, for INDEXED storage
+    private final int[] palette;
+    // For ARGB storage, which shares its pixels with the buffer
+    private final SharedPixelBuffer argb;
+
+    private PackedRaster(Storage storage, int width, int height, byte[] bytes, int[] palette,
+                         SharedPixelBuffer argb) {
+        this.storage = storage;
+        this.width = width;
+        this.height = height;
+        this.bytes = bytes;
+        this.palette = palette;
+        this.argb = argb;
+    }
+
+    /**
+     * Packs a decoded image. The storage follows its colour model: palette images stay indexed,
+     * gray ones stay gray, and only images with an alpha channel are kept as ARGB. Colours are
+     * converted the way Java2D draws the image, as {@link ImageConverter} does.
+     */
+    public static PackedRaster of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ColorModel colorModel = image.getColorModel();
+        // Indexes above 255, as in 16-bit palettes, do not fit in a byte: such images go to ARGB
+        if (colorModel instanceof IndexColorModel && image.getRaster().getNumBands() == 1
+                && ((IndexColorModel) colorModel).getMapSize() <= 256
+                && image.getSampleModel().getSampleSize(0) <= 8) {
+            return ofIndexed(image, (IndexColorModel) colorModel);
+        }
+        if (colorModel.hasAlpha() || colorModel instanceof IndexColorModel) {
+            SharedPixelBuffer shared = SharedPixelBuffer.wrap(image);
+            if (shared == null) {
+                arrayLength(Storage.ARGB, width, height);
+                shared = SharedPixelBuffer.allocate(width, height);
+                drawStrip(image, shared.getBufferedImage(), 0);
+            }
+            return new PackedRaster(Storage.ARGB, width, height, null, null, shared);
+        }
+        Storage storage = colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY ? Storage.GRAY : Storage.RGB;
+        byte[] bytes = new byte[arrayLength(storage, width, height)];
+        BufferedImage strip = new BufferedImage(width, Math.min(STRIP_ROWS, height), BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y += STRIP_ROWS) {
+            drawStrip(image, strip, y);
+            for (int stripRow = 0; stripRow < STRIP_ROWS && y + stripRow < height; stripRow++) {
+                strip.getRaster().getDataElements(0, stripRow, width, 1, row);
+                storeRow(storage, row, bytes, (y + stripRow) * width * storage.bytesPerPixel);
+            }
+        }
+        return new PackedRaster(storage, width, height, bytes, null, null);
+    }
+
+    /**
+     * Supplies rows of premultiplied ARGB pixels, e.g. read from a file.
+     */
+    public interface RowSource {
+        /**
+         * Writes the {@code width} pixels of row {@code y} into {@code dst} from {@code offset}.
+         */
+        void readRow(int y, int[] dst, int offset) throws IOException;
+    }
+
+    /**
+     * Packs premultiplied ARGB pixels, e.g. read back from a cache, in two passes over the rows:
+     * the first checks whether they are opaque and gray, the second copies them into the narrowest
+     * storage. Only pixels with transparency end up in a full ARGB buffer.
+     */
+    public static PackedRaster pack(int width, int height, RowSource source) throws IOException {
+        boolean opaque = true;
+        boolean gray = true;
+        int[] row = new int[width];
+        for (int y = 0; y < height && opaque; y++) {
+            source.readRow(y, row, 0);
+            for (int x = 0; x < width && opaque; x++) {
+                int pixel = row[x];
+                opaque = pixel >>> 24 == 0xff;
+                gray &= ((pixel >> 16) & 0xff) == (pixel & 0xff) && ((pixel >> 8) & 0xff) == (pixel & 0xff);
+            }
+        }
+        if (!opaque) {
+            arrayLength(Storage.ARGB, width, height);
+            SharedPixelBuffer shared = SharedPixelBuffer.allocate(width, height);
+            for (int y = 0; y < height; y++) {
+                source.readRow(y, shared.getPixels(), y * width);
+            }
+            return new PackedRaster(Storage.ARGB, width, height, null, null, shared);
+        }
+        Storage storage = gray ? Storage.GRAY : Storage.RGB;
+        byte[] bytes = new byte[arrayLength(storage, width, height)];
+        for (int y = 0; y < height; y++) {
+            source.readRow(y, row, 0);
+            storeRow(storage, row, bytes, y * width * storage.bytesPerPixel);
+        }
+        return new PackedRaster(storage, width, height, bytes, null, null);
+    }
+
+    /**
+     * Uses a premultiplied ARGB buffer as is, without looking for a narrower storage.
+     */
+    public static PackedRaster wrap(SharedPixelBuffer buffer) {
+        return new PackedRaster(Storage.ARGB, buffer.getWidth(), buffer.getHeight(), null, null, buffer);
+    }
+
+    private static PackedRaster ofIndexed(BufferedImage image, IndexColorModel colorModel) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] palette = new int[colorModel.getMapSize()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = premultiply(colorModel.getRGB(i));
+        }
+        byte[] bytes = new byte[arrayLength(Storage.INDEXED, width, height)];
+        Raster raster = image.getRaster();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            // Also unpacks the 1, 2 and 4 bit indexes of binary images
+            raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, row);
+            for (int x = 0, offset = y * width; x < width; x++) {
+                bytes[offset + x] = (byte) row[x];
+            }
+        }
+        return new PackedRaster(Storage.INDEXED, width, height, bytes, palette, null);
+    }
+
+    /**
+     * Length of the array holding the pixels in the given storage, or an exception if it is larger
+     * than a Java array can be.
+     */
+    private static int arrayLength(Storage storage, int width, int height) {
+        long length = (long) (storage == Storage.ARGB ? 1 : storage.bytesPerPixel) * width * height;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(width + "x" + height + " is too large for "
+                    + storage + " storage in a single array");
+        }
+        return (int) length;
+    }
+
+    private static void drawStrip(BufferedImage image, BufferedImage strip, int y) {
+        Graphics2D g = strip.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, -y, null);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private static void storeRow(Storage storage, int[] row, byte[] bytes, int offset) {
+        if (storage == Storage.GRAY) {
+            for (int x = 0; x < row.length; x++) {
+                bytes[offset + x] = (byte) row[x];
+            }
+            return;
+        }
+        for (int x = 0; x < row.length; x++) {
+            int pixel = row[x];
+            bytes[offset++] = (byte) (pixel >> 16);
+            bytes[offset++] = (byte) (pixel >> 8);
+            bytes[offset++] = (byte) pixel;
+        }
+    }
+
+    private static int premultiply(int argb) {
+        int alpha = argb >>> 24;
+        if (alpha == 0xff) {
+            return argb;
+        }
+        int red = ((argb >> 16) & 0xff) * alpha / 255;
+        int green = ((argb >> 8) & 0xff) * alpha / 255;
+        int blue = (argb & 0xff) * alpha / 255;
+        return alpha << 24 | red << 16 | green << 8 | blue;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Bytes held by the pixels.
+     */
+    public long getByteCount() {
+        return (long) storage.bytesPerPixel * width * height + (palette != null ? 4L * palette.length : 0);
+    }
+
+    /**
+     * Writes premultiplied ARGB pixels of one row into {@code dst}.
+     */
+    public void readRow(int x, int y, int w, int[] dst, int dstOffset) {
+        switch (storage) {
+            case GRAY:
+                for (int i = 0, src = y * width + x; i < w; i++) {
+                    int value = bytes[src + i] & 0xff;
+                    dst[dstOffset + i] = 0xff000000 | value << 16 | value << 8 | value;
+                }
+                break;
+            case INDEXED:
+                for (int i = 0, src = y * width + x; i < w; i++) {
+                    int index = bytes[src + i] & 0xff;
+                    // Out of range indexes are black, as in an IndexColorModel
+                    dst[dstOffset + i] = index < palette.length ? palette[index] : 0xff000000;
+                }
+                break;
+            case RGB:
+                for (int i = 0, src = 3 * (y * width + x); i < w; i++, src += 3) {
+                    dst[dstOffset + i] = 0xff000000 | (bytes[src] & 0xff) << 16
+                            | (bytes[src + 1] & 0xff) << 8 | (bytes[src + 2] & 0xff);
+                }
+                break;
+            default:
+                System.arraycopy(argb.getPixels(), y * width + x, dst, dstOffset, w);
+        }
+    }
+
+    /**
+     * Expands the pixels to premultiplied ARGB, row by row. ARGB rasters return the buffer they
+     * share their pixels with, so the same image comes back every time.
+     */
+    public SharedPixelBuffer toSharedPixelBuffer() {
+        if (argb != null) {
+            return argb;
+        }
+        SharedPixelBuffer buffer = SharedPixelBuffer.allocate(width, height);
+        int[] pixels = buffer.getPixels();
+        for (int y = 0; y < height; y++) {
+            readRow(0, y, width, pixels, y * width);
+        }
+        return buffer;
+    }
+}
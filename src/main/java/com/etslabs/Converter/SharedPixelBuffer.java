@@ -0,0 +1,160 @@
+package com.etslabs.Converter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.IntBuffer;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * One block of premultiplied ARGB pixels seen both as a JavaFX image (through a {@link PixelBuffer})
+ * and as an AWT {@link BufferedImage} (through a {@link DataBufferInt}), so that neither side ever
+ * copies pixels to hand them to the other.
+ *
+ * <p>The pixels live in a heap {@code int[]} wrapped by an {@link IntBuffer}: {@link DataBufferInt}
+ * can only wrap an array, and JavaFX accepts heap buffers as well as direct ones. Writes made through
+ * the AWT side or {@link #getPixels()} become visible on screen after {@link #markDirty()} is called
+ * on the JavaFX thread.
+ */
+public class SharedPixelBuffer {
+    private static final ColorModel ARGB_PRE = new DirectColorModel(
+            ColorModel.getRGBdefault().getColorSpace(), 32,
+            0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000, true, DataBufferInt.TYPE_INT);
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final PixelBuffer<IntBuffer> pixelBuffer;
+    private final FxImage fxImage;
+    private final BufferedImage bufferedImage;
+
+    private SharedPixelBuffer(int width, int height, int[] pixels, BufferedImage bufferedImage) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.pixelBuffer = new PixelBuffer<>(width, height, IntBuffer.wrap(pixels),
+                PixelFormat.getIntArgbPreInstance());
+        this.fxImage = new FxImage(this);
+        this.bufferedImage = bufferedImage != null ? bufferedImage : createBufferedImage(width, height, pixels);
+    }
+
+    public static SharedPixelBuffer allocate(int width, int height) {
+        return new SharedPixelBuffer(width, height, new int[pixelCount(width, height)], null);
+    }
+
+    /**
+     * Wraps an existing premultiplied ARGB array of {@code width * height} pixels without copying it.
+     */
+    public static SharedPixelBuffer wrap(int width, int height, int[] pixels) {
+        if (pixels.length < pixelCount(width, height)) {
+            throw new IllegalArgumentException("Pixel array too small for " + width + "x" + height);
+        }
+        return new SharedPixelBuffer(width, height, pixels, null);
+    }
+
+    /**
+     * Number of pixels of a {@code width x height} raster, or an exception if it is negative or
+     * larger than a Java array can be.
+     */
+    public static int pixelCount(int width, int height) {
+        long count = (long) width * height;
+        if (width < 0 || height < 0 || count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(width + "x" + height + " cannot be held in a single pixel array");
+        }
+        return (int) count;
+    }
+
+    /**
+     * Wraps the raster of a {@code TYPE_INT_ARGB_PRE} image if its layout allows it, or returns null.
+     */
+    public static SharedPixelBuffer wrap(BufferedImage image) {
+        Raster raster = image.getRaster();
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB_PRE
+                || !(raster.getDataBuffer() instanceof DataBufferInt)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return null;
+        }
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        if (dataBuffer.getNumBanks() != 1 || dataBuffer.getOffset() != 0
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || sampleModel.getScanlineStride() != image.getWidth()) {
+            return null;
+        }
+        return new SharedPixelBuffer(image.getWidth(), image.getHeight(), dataBuffer.getData(), image);
+    }
+
+    /**
+     * Returns the buffer behind an image created by this class, or null for any other image.
+     */
+    public static SharedPixelBuffer of(javafx.scene.image.Image image) {
+        return image instanceof FxImage ? ((FxImage) image).owner : null;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Premultiplied ARGB pixels, row after row.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public WritableImage getFxImage() {
+        return fxImage;
+    }
+
+    /**
+     * {@code TYPE_INT_ARGB_PRE} image sharing the same pixels.
+     */
+    public BufferedImage getBufferedImage() {
+        return bufferedImage;
+    }
+
+    /**
+     * Tells JavaFX that the whole buffer changed. Must be called on the JavaFX thread.
+     */
+    public void markDirty() {
+        pixelBuffer.updateBuffer(buffer -> null);
+    }
+
+    /**
+     * Tells JavaFX that a region of the buffer changed. Must be called on the JavaFX thread.
+     */
+    public void markDirty(int x, int y, int w, int h) {
+        pixelBuffer.updateBuffer(buffer -> new Rectangle2D(x, y, w, h));
+    }
+
+    private static BufferedImage createBufferedImage(int width, int height, int[] pixels) {
+        DataBufferInt dataBuffer = new DataBufferInt(pixels, pixelCount(width, height));
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width,
+                new int[] { 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000 }, null);
+        return new BufferedImage(ARGB_PRE, raster, true, null);
+    }
+
+    /**
+     * JavaFX image that remembers the buffer it was created from.
+     */
+    private static final class FxImage extends WritableImage {
+        private final SharedPixelBuffer owner;
+
+        FxImage(SharedPixelBuffer owner) {
+            super(owner.pixelBuffer);
+            this.owner = owner;
+        }
+    }
+}
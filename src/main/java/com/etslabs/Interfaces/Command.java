@@ -1,5 +1,51 @@
 package com.etslabs.Interfaces;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.etslabs.Commands.ImagePayload;
+import com.etslabs.Models.Perspective;
+
 public interface Command {
     void execute();
     void undo();
+
+    /**
+     * Offered the command executed right after this one, while both are part of the same gesture:
+     * absorbs its effect if it can, so that both are undone and redone as a single step.
+     *
+     * @param next a command that has already been executed
+     * @return true if this command now includes {@code next}, false to keep it as a separate step
+     */
+    default boolean mergeWith(Command next) {
+        return false;
+    }
+
+    /**
+     * Perspective this command changes, so the history can snapshot and restore it.
+     */
+    default Perspective getPerspective() {
+        return null;
+    }
+
+    /**
+     * Short label shown in the history list.
+     */
+    default String getDescription() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Images this command keeps alive for undo/redo, charged against the history's memory budget.
+     */
+    default List<ImagePayload> getPayloads() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Called once the command has left the history for good (its redo branch was overwritten or the
+     * history was cleared), to release what it holds. The command is not used afterwards.
+     */
+    default void discard() {
+    }
 }
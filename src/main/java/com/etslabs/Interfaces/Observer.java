@@ -1,5 +1,14 @@
 package com.etslabs.Interfaces;
 
+import com.etslabs.Models.ChangeEvent;
+
 public interface Observer {
     void update();
+
+    /**
+     * Called with what changed; observers that don't care only implement {@link #update()}.
+     */
+    default void update(ChangeEvent event) {
+        update();
+    }
 }
@@ -0,0 +1,44 @@
+package com.etslabs.Interfaces;
+
+import com.etslabs.Processing.PixelEngine;
+
+/**
+ * Pixel operation applied to a whole image by a {@link PixelEngine}. Pixels are premultiplied ARGB,
+ * row after row. A filter is described by its name and parameters, so that it can be journaled and
+ * recreated with {@link com.etslabs.Processing.Filters#create}.
+ */
+public interface PixelFilter {
+    /**
+     * Writes the filtered {@code src} into {@code dst}, whose size is given by
+     * {@link #getOutputWidth} and {@link #getOutputHeight}.
+     */
+    void apply(PixelEngine engine, int[] src, int width, int height, int[] dst);
+
+    default int getOutputWidth(int width, int height) {
+        return width;
+    }
+
+    default int getOutputHeight(int width, int height) {
+        return height;
+    }
+
+    /**
+     * How far around an output pixel the filter reads its input, so that a region can be filtered
+     * from that region extended by this margin.
+     */
+    default int getMargin() {
+        return 0;
+    }
+
+    /**
+     * Identifier of the kind of filter, stable across versions.
+     */
+    String getName();
+
+    double[] getParameters();
+
+    /**
+     * Short label shown in the history list.
+     */
+    String getDescription();
+}
@@ -0,0 +1,9 @@
+package com.etslabs.Interfaces;
+
+/**
+ * Registration of an observer; closing it stops the notifications. Closing twice has no effect.
+ */
+public interface Subscription extends AutoCloseable {
+    @Override
+    void close();
+}
@@ -0,0 +1,16 @@
+package com.etslabs;
+
+import javafx.application.Application;
+
+/**
+ * Plain entry point starting {@link MainApp} from the class path, where the JVM cannot launch an
+ * {@link Application} subclass directly. Used to run the application with a class data sharing
+ * archive, see the {@code cds} profile of the pom.
+ */
+public final class Launcher {
+    private Launcher() {}
+
+    public static void main(String[] args) {
+        Application.launch(MainApp.class, args);
+    }
+}
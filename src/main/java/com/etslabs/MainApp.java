@@ -1,14 +1,70 @@
 package com.etslabs;
 
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.imageio.ImageIO;
+
 import com.etslabs.Controllers.MainController;
+import com.etslabs.Metrics.Metrics;
+import com.etslabs.Metrics.StartupEvent;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.stage.Stage;
 public class MainApp extends Application {
+    private MainController mainController;
+
+    /**
+     * Called by the JavaFX launcher.
+     */
+    public MainApp() {}
+
+    @Override
+    public void init() {
+        // Loads the image readers while the toolkit starts, instead of on the first decode
+        Thread warmup = new Thread(() -> ImageIO.getImageReadersBySuffix("jpg").hasNext(), "startup-warmup");
+        warmup.setDaemon(true);
+        warmup.start();
+    }
+
     @Override
     public void start(Stage primaryStage) {
-        MainController mainController = new MainController(primaryStage);
+        mainController = new MainController(primaryStage);
         mainController.init();
+        recordFirstFrame();
+    }
+
+    @Override
+    public void stop() {
+        if (mainController != null) {
+            mainController.shutdown();
+        }
+    }
+
+    /**
+     * Records the time from the launch of the process to the first pulse that renders the window.
+     */
+    private void recordFirstFrame() {
+        Instant launch = ProcessHandle.current().info().startInstant().orElse(null);
+        if (launch == null) {
+            return;
+        }
+        boolean warmStart = mainController.isWarmStart();
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                long millis = Duration.between(launch, Instant.now()).toMillis();
+                Metrics.FIRST_FRAME.record(millis * 1_000_000L);
+                StartupEvent event = new StartupEvent();
+                event.firstFrame = millis;
+                event.warmStart = warmStart;
+                event.commit();
+                System.out.println("First frame " + millis + " ms after launch"
+                        + (warmStart ? " (warm start)" : ""));
+            }
+        }.start();
     }
 
     public static void main(String[] args) {
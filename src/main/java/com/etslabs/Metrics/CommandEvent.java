@@ -0,0 +1,26 @@
+package com.etslabs.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.etslabs.Command")
+@Label("Command")
+@Category("Lab5")
+@Description("A command executed, undone or redone through the CommandManager, or a history jump")
+public class CommandEvent extends Event {
+    @Label("Action")
+    public String action;
+
+    @Label("Command")
+    public String command;
+
+    @Label("Merged")
+    @Description("True when the command was folded into the previous one")
+    public boolean merged;
+
+    @Label("History Size")
+    public int historySize;
+}
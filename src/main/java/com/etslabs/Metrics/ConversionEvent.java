@@ -0,0 +1,26 @@
+package com.etslabs.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.etslabs.Conversion")
+@Label("Image Conversion")
+@Category("Lab5")
+@Description("Conversion of an image between AWT and JavaFX")
+public class ConversionEvent extends Event {
+    @Label("Direction")
+    public String direction;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Zero Copy")
+    @Description("True when the pixels were shared instead of copied")
+    public boolean zeroCopy;
+}
@@ -0,0 +1,34 @@
+package com.etslabs.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Event counter that only counts while metrics are enabled.
+ */
+public final class Counter {
+    private final String name;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        if (Metrics.isEnabled()) {
+            value.increment();
+        }
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    public void reset() {
+        value.reset();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + get();
+    }
+}
@@ -0,0 +1,25 @@
+package com.etslabs.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.etslabs.Decode")
+@Label("Image Decode")
+@Category("Lab5")
+@Description("Decoding of an image file by an ImageReader")
+public class DecodeEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Subsampling")
+    public int subsampling;
+}
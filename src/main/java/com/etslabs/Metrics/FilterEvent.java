@@ -0,0 +1,26 @@
+package com.etslabs.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.etslabs.Filter")
+@Label("Pixel Filter")
+@Category("Lab5")
+@Description("Filter applied to a whole image by the pixel engine")
+public class FilterEvent extends Event {
+    @Label("Filter")
+    public String filter;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Parallelism")
+    @Description("Number of worker threads of the engine")
+    public int parallelism;
+}
@@ -0,0 +1,22 @@
+package com.etslabs.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.etslabs.ImageLoad")
+@Label("Image Load")
+@Category("Lab5")
+@Description("An image file opened by the application, from the request to the result on the JavaFX thread")
+public class ImageLoadEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Progressive")
+    public boolean progressive;
+
+    @Label("Cancelled")
+    public boolean cancelled;
+}
@@ -0,0 +1,89 @@
+package com.etslabs.Metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-process latency histograms and counters of the application. Collection is off unless the
+ * {@code lab5.metrics} system property is set or {@link #setEnabled} is called; while off, the
+ * probes are a single volatile read.
+ *
+ * <p>Typical use around a measured section:
+ * <pre>
+ * long start = Metrics.now();
+ * ...
+ * Metrics.DECODE.recordSince(start);
+ * </pre>
+ * The JFR events of this package are independent of this switch: they are controlled by the
+ * recording settings and cost nothing when no recording is running.
+ */
+public final class Metrics {
+    private static volatile boolean enabled = Boolean.getBoolean("lab5.metrics");
+
+    public static final LatencyHistogram LOAD = new LatencyHistogram("load");
+    public static final LatencyHistogram DECODE = new LatencyHistogram("decode");
+    public static final LatencyHistogram CONVERSION = new LatencyHistogram("conversion");
+    public static final LatencyHistogram COMMAND = new LatencyHistogram("command");
+    public static final LatencyHistogram REPAINT = new LatencyHistogram("repaint");
+    public static final LatencyHistogram FILTER = new LatencyHistogram("filter");
+    public static final LatencyHistogram THUMBNAIL = new LatencyHistogram("thumbnail");
+    public static final LatencyHistogram FIRST_FRAME = new LatencyHistogram("launch to first frame");
+
+    public static final Counter INPUT_EVENTS = new Counter("input events");
+    public static final Counter MERGED_COMMANDS = new Counter("merged commands");
+    public static final Counter MODEL_NOTIFICATIONS = new Counter("model notifications");
+
+    private static final List<LatencyHistogram> histograms = Collections.unmodifiableList(
+            Arrays.asList(LOAD, DECODE, CONVERSION, COMMAND, REPAINT, FILTER, THUMBNAIL, FIRST_FRAME));
+    private static final List<Counter> counters = Collections.unmodifiableList(
+            Arrays.asList(INPUT_EVENTS, MERGED_COMMANDS, MODEL_NOTIFICATIONS));
+
+    private Metrics() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Start time of a measured section, or 0 when collection is off.
+     */
+    public static long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static List<LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    public static List<Counter> getCounters() {
+        return counters;
+    }
+
+    public static void reset() {
+        histograms.forEach(LatencyHistogram::reset);
+        counters.forEach(Counter::reset);
+    }
+
+    /**
+     * One line per non-empty histogram and counter.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram.getCount() > 0) {
+                report.append(histogram).append('\n');
+            }
+        }
+        for (Counter counter : counters) {
+            if (counter.get() > 0) {
+                report.append(counter).append('\n');
+            }
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package com.etslabs.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.etslabs.Repaint")
+@Label("Repaint")
+@Category("Lab5")
+@Description("A repaint of a view")
+public class RepaintEvent extends Event {
+    @Label("View")
+    public String view;
+
+    @Label("Partial")
+    @Description("True when only part of the view was redrawn")
+    public boolean partial;
+}
@@ -0,0 +1,22 @@
+package com.etslabs.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("com.etslabs.Startup")
+@Label("Startup")
+@Category("Lab5")
+@Description("Time from the launch of the process to the first frame of the main window")
+public class StartupEvent extends Event {
+    @Label("Launch to First Frame")
+    @Timespan(Timespan.MILLISECONDS)
+    public long firstFrame;
+
+    @Label("Warm Start")
+    @Description("True when the window opened on the preview saved by the previous session")
+    public boolean warmStart;
+}
@@ -0,0 +1,111 @@
+package com.etslabs.Models;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Directory of cache entries named after their source file, shared by the on-disk caches. Entries
+ * are keyed by path, size and modification time of the source, and an optional variant; the least
+ * recently used ones are deleted once the entries grow past the size cap.
+ *
+ * <p>The size accounting is not synchronized: entries must be added by a single writer thread.
+ */
+final class CacheDirectory {
+    private final Path directory;
+    private final String suffix;
+    private final long maxBytes;
+    // Total size of the entries; -1 until the directory is scanned
+    private long cachedBytes = -1;
+
+    CacheDirectory(Path directory, String suffix, long maxBytes) {
+        this.directory = directory;
+        this.suffix = suffix;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Path of the entry for the source file, or null if the file does not exist.
+     *
+     * @param variant names how the entry was made from the source, or null
+     */
+    Path entryFor(File source, String variant) {
+        if (!source.isFile()) {
+            return null;
+        }
+        String key = source.getAbsolutePath() + "|" + source.length() + "|" + source.lastModified();
+        if (variant != null) {
+            key += "|" + variant;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return directory.resolve(name + suffix);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * New empty file in the directory, to be written then moved over an entry.
+     */
+    Path createTempFile() throws IOException {
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, "entry", ".tmp");
+    }
+
+    /**
+     * Marks an entry as just used, so that it is evicted last.
+     */
+    static void touch(Path entry) throws IOException {
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    /**
+     * Deletes the least recently used entries once the cache is over its cap. The directory is only
+     * listed when needed, so that caches of many small entries (thumbnails) stay cheap to fill.
+     */
+    void evict(long added) throws IOException {
+        if (cachedBytes >= 0) {
+            // Replaced entries are counted twice, which only brings the next scan forward
+            cachedBytes += added;
+            if (cachedBytes <= maxBytes) {
+                return;
+            }
+        }
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(directory)) {
+            entries = files.filter(path -> path.toString().endsWith(suffix)).collect(Collectors.toList());
+        }
+        List<long[]> stats = new ArrayList<>();
+        long total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Path path = entries.get(i);
+            long size = Files.size(path);
+            total += size;
+            stats.add(new long[] { Files.getLastModifiedTime(path).toMillis(), size, i });
+        }
+        stats.sort(Comparator.comparingLong(stat -> stat[0]));
+        for (long[] stat : stats) {
+            if (total <= maxBytes) {
+                break;
+            }
+            Files.deleteIfExists(entries.get((int) stat[2]));
+            total -= stat[1];
+        }
+        cachedBytes = total;
+    }
+}
@@ -0,0 +1,43 @@
+package com.etslabs.Models;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Describes what changed in a model since its observers were last notified. Changes made
+ * inside a batch are coalesced into a single event.
+ */
+public final class ChangeEvent {
+    public enum Kind {
+        IMAGE, SCALE, TRANSLATION
+    }
+
+    private final Object source;
+    private final Set<Kind> kinds;
+
+    ChangeEvent(Object source, Set<Kind> kinds) {
+        this.source = source;
+        this.kinds = Collections.unmodifiableSet(EnumSet.copyOf(kinds));
+    }
+
+    /**
+     * The {@link ImageModel} or {@link Perspective} that changed.
+     */
+    public Object getSource() {
+        return source;
+    }
+
+    public Set<Kind> getKinds() {
+        return kinds;
+    }
+
+    public boolean has(Kind kind) {
+        return kinds.contains(kind);
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent" + kinds;
+    }
+}
@@ -0,0 +1,140 @@
+package com.etslabs.Models;
+
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.PackedRaster;
+
+import javafx.scene.image.Image;
+
+/**
+ * Result of decoding an image file, ready to be published to an {@link ImageModel}.
+ * For large files the displayed image is the overview of a {@link TiledImage}; for previews it is
+ * a subsampled decode, smaller than the source.
+ *
+ * <p>Decodes kept as a {@link PackedRaster} only hold premultiplied ARGB pixels while they are
+ * displayed: the displayed image is expanded on first use and can be dropped again with
+ * {@link #releaseImage()}, e.g. by a cache short of memory.
+ */
+public class DecodedImage {
+    private final PackedRaster pixels;
+    private volatile Image image;
+    private final TiledImage tiledImage;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final boolean preview;
+
+    public DecodedImage(Image image, TiledImage tiledImage) {
+        this.pixels = null;
+        this.image = image;
+        this.tiledImage = tiledImage;
+        this.sourceWidth = tiledImage != null ? tiledImage.getWidth() : (int) image.getWidth();
+        this.sourceHeight = tiledImage != null ? tiledImage.getHeight() : (int) image.getHeight();
+        this.preview = false;
+    }
+
+    /**
+     * Creates a preview decoded at a lower resolution than its source.
+     */
+    public DecodedImage(Image image, int sourceWidth, int sourceHeight) {
+        this.pixels = null;
+        this.image = image;
+        this.tiledImage = null;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.preview = image.getWidth() < sourceWidth;
+    }
+
+    /**
+     * Creates a decode kept in packed form, a preview if it is smaller than its source.
+     */
+    public DecodedImage(PackedRaster pixels, int sourceWidth, int sourceHeight) {
+        this.pixels = pixels;
+        this.tiledImage = null;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.preview = pixels.getWidth() < sourceWidth;
+    }
+
+    /**
+     * The image to display, expanded from the packed pixels if it was not already.
+     */
+    public Image getImage() {
+        Image shown = image;
+        if (shown != null) {
+            return shown;
+        }
+        synchronized (this) {
+            if (image == null) {
+                image = ImageConverter.packedRasterToWritableImage(pixels);
+            }
+            return image;
+        }
+    }
+
+    /**
+     * True when the image is the one currently displayed for this decode. Unlike comparing with
+     * {@link #getImage()}, never expands the packed pixels.
+     */
+    public boolean isImage(Image candidate) {
+        return candidate != null && candidate == image;
+    }
+
+    /**
+     * Drops the displayed image of a packed decode, keeping only the packed pixels. Views still
+     * showing it keep it alive; later calls to {@link #getImage()} expand a new one.
+     *
+     * @return the number of bytes released, 0 if there was nothing to release
+     */
+    public synchronized long releaseImage() {
+        if (pixels == null || image == null || pixels.getStorage() == PackedRaster.Storage.ARGB) {
+            return 0;
+        }
+        image = null;
+        return imageBytes();
+    }
+
+    /**
+     * Bytes of pixels held in memory: the packed pixels, if any, and the displayed image.
+     */
+    public synchronized long getByteCount() {
+        if (pixels == null) {
+            return imageBytes();
+        }
+        // An ARGB raster and its image share the same pixels
+        boolean shared = pixels.getStorage() == PackedRaster.Storage.ARGB;
+        return pixels.getByteCount() + (image != null && !shared ? imageBytes() : 0);
+    }
+
+    private long imageBytes() {
+        return pixels != null
+                ? 4L * pixels.getWidth() * pixels.getHeight()
+                : 4L * (long) image.getWidth() * (long) image.getHeight();
+    }
+
+    public TiledImage getTiledImage() {
+        return tiledImage;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * True when the image has fewer pixels than the source and a full decode can replace it.
+     */
+    public boolean isPreview() {
+        return preview;
+    }
+
+    /**
+     * Releases resources held by a result that will never be published.
+     */
+    public void discard() {
+        if (tiledImage != null) {
+            tiledImage.close();
+        }
+    }
+}
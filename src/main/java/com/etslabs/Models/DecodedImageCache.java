@@ -0,0 +1,222 @@
+package com.etslabs.Models;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.etslabs.Converter.PackedRaster;
+import com.etslabs.Converter.SharedPixelBuffer;
+
+/**
+ * On-disk cache of decoded pixels, so that reopening an image is a sequential read of its raw
+ * pixels instead of a full decode. Entries are keyed by path, size and modification time of the
+ * source file, and by variant for reduced decodes such as previews; the oldest used entries are
+ * evicted once the cache grows past its size cap.
+ *
+ * <p>A hit is a read-through copy, not a mapping: pixels are read a row at a time into heap
+ * arrays, which is what the AWT side of a {@link SharedPixelBuffer} needs, and what the packed
+ * form of {@link #getPacked} is made of. No file stays mapped or open once a call returns.
+ */
+public class DecodedImageCache {
+    private static final int MAGIC = 0x4c423550; // "LB5P"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final String SUFFIX = ".pixels";
+
+    private static final DecodedImageCache instance = new DecodedImageCache(
+            Paths.get(System.getProperty("user.home"), ".lab5", "pixel-cache"), 2L * 1024 * 1024 * 1024);
+
+    // Sized by the writer thread only
+    private final CacheDirectory entries;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pixel-cache-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DecodedImageCache(Path directory, long maxBytes) {
+        this.entries = new CacheDirectory(directory, SUFFIX, maxBytes);
+    }
+
+    public static DecodedImageCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns a copy of the cached pixels of the file, or null if they are not cached or the file
+     * changed.
+     */
+    public SharedPixelBuffer get(File source) {
+        return read(entries.entryFor(source, null), (width, height, rows) -> {
+            SharedPixelBuffer buffer = SharedPixelBuffer.allocate(width, height);
+            for (int y = 0; y < height; y++) {
+                rows.readRow(y, buffer.getPixels(), y * width);
+            }
+            return buffer;
+        });
+    }
+
+    /**
+     * Like {@link #get}, but packs the pixels from the file into the narrowest storage that holds
+     * them, without a full ARGB copy in between, see {@link PackedRaster#pack}.
+     */
+    public PackedRaster getPacked(File source) {
+        return getPacked(source, null);
+    }
+
+    /**
+     * Like {@link #getPacked(File)}, for a variant of the decode stored with {@link #put(File, String, PackedRaster)}.
+     *
+     * @param variant names how the pixels were decoded, e.g. a subsampling, or null for a full decode
+     */
+    public PackedRaster getPacked(File source, String variant) {
+        return read(entries.entryFor(source, variant), PackedRaster::pack);
+    }
+
+    private <T> T read(Path entry, EntryReader<T> reader) {
+        if (entry == null || !Files.isRegularFile(entry)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            readFully(channel, header, 0);
+            // The magic number also rejects files written with another byte order
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            if (width <= 0 || height <= 0 || channel.size() != HEADER_BYTES + 4L * width * height) {
+                return null;
+            }
+            ByteBuffer rowBytes = ByteBuffer.allocateDirect(4 * width).order(ByteOrder.nativeOrder());
+            T pixels = reader.read(width, height, (y, dst, offset) -> {
+                rowBytes.clear();
+                readFully(channel, rowBytes, HEADER_BYTES + 4L * y * width);
+                rowBytes.asIntBuffer().get(dst, offset, width);
+            });
+            CacheDirectory.touch(entry);
+            return pixels;
+        } catch (IOException e) {
+            System.out.println("Pixel cache read failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the pixels of the file in the background. The buffer must not be modified afterwards.
+     */
+    public void put(File source, SharedPixelBuffer pixels) {
+        put(source, PackedRaster.wrap(pixels));
+    }
+
+    /**
+     * Stores packed pixels of the file in the background; they are expanded a row at a time.
+     */
+    public void put(File source, PackedRaster pixels) {
+        put(source, null, pixels);
+    }
+
+    /**
+     * Stores a variant of the decode of the file in the background, see {@link #getPacked(File, String)}.
+     */
+    public void put(File source, String variant, PackedRaster pixels) {
+        Path entry = entries.entryFor(source, variant);
+        if (entry == null) {
+            return;
+        }
+        writer.execute(() -> {
+            try {
+                entries.evict(write(entry, pixels));
+            } catch (IOException e) {
+                System.out.println("Pixel cache write failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stores the pixels of the file and waits for the write, e.g. on exit, when a background
+     * write could be cut short.
+     */
+    public void putNow(File source, SharedPixelBuffer pixels) throws IOException {
+        Path entry = entries.entryFor(source, null);
+        if (entry == null) {
+            return;
+        }
+        // Still done by the writer thread, which owns the size accounting
+        Future<?> done = writer.submit(() -> {
+            entries.evict(write(entry, PackedRaster.wrap(pixels)));
+            return null;
+        });
+        try {
+            done.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing " + entry, e);
+        }
+    }
+
+    private long write(Path entry, PackedRaster pixels) throws IOException {
+        Path temp = entries.createTempFile();
+        try {
+            long size = HEADER_BYTES + 4L * pixels.getWidth() * pixels.getHeight();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC).putInt(VERSION).putInt(pixels.getWidth()).putInt(pixels.getHeight());
+                header.flip();
+                writeFully(channel, header);
+                ByteBuffer rowBytes = ByteBuffer.allocateDirect(4 * pixels.getWidth()).order(ByteOrder.nativeOrder());
+                int[] row = new int[pixels.getWidth()];
+                for (int y = 0; y < pixels.getHeight(); y++) {
+                    pixels.readRow(0, y, row.length, row, 0);
+                    rowBytes.clear();
+                    rowBytes.asIntBuffer().put(row);
+                    writeFully(channel, rowBytes);
+                }
+                channel.force(false);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return size;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Turns the rows of premultiplied ARGB pixels of an entry into the form returned to the caller.
+     */
+    private interface EntryReader<T> {
+        T read(int width, int height, PackedRaster.RowSource rows) throws IOException;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated pixel cache entry");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.etslabs.Models;
+
+import java.lang.ref.WeakReference;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.etslabs.Interfaces.Observer;
+import com.etslabs.Interfaces.Subscription;
+import com.etslabs.Metrics.Metrics;
+
+import javafx.application.Platform;
+
+/**
+ * Delivers the {@link ChangeEvent}s of one model to its observers. Changes may be published from
+ * any thread: plain subscribers are called on the publishing thread, while UI subscribers are
+ * called on the JavaFX thread, with the changes published meanwhile collapsed into a single event.
+ *
+ * <p>A weak subscription does not keep its observer alive, so an observer owned by a shorter-lived
+ * object than the model (e.g. a perspective of a shared image) goes away with its owner.
+ */
+public final class EventBus {
+    private final Object source;
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+
+    public EventBus(Object source) {
+        this.source = source;
+    }
+
+    /**
+     * Notifies the observer on the thread publishing each change.
+     */
+    public Subscription subscribe(Observer observer) {
+        return add(new Entry(observer, false, false));
+    }
+
+    /**
+     * Like {@link #subscribe}, but only holds a weak reference to the observer: the caller keeps
+     * it reachable, typically in a field, and the subscription ends once it is collected.
+     */
+    public Subscription subscribeWeakly(Observer observer) {
+        return add(new Entry(observer, true, false));
+    }
+
+    /**
+     * Notifies the observer on the JavaFX thread. Changes published from another thread, or while
+     * a previous event is still waiting for the JavaFX thread, are merged into one event.
+     */
+    public Subscription subscribeOnFxThread(Observer observer) {
+        return add(new Entry(observer, false, true));
+    }
+
+    public void publish(Set<ChangeEvent.Kind> kinds) {
+        if (kinds.isEmpty()) {
+            return;
+        }
+        Metrics.MODEL_NOTIFICATIONS.increment();
+        ChangeEvent event = new ChangeEvent(source, kinds);
+        for (Entry entry : entries) {
+            entry.deliver(event);
+        }
+    }
+
+    private Entry add(Entry entry) {
+        entries.add(entry);
+        return entry;
+    }
+
+    private final class Entry implements Subscription {
+        private final Observer observer;
+        private final WeakReference<Observer> weakObserver;
+        private final boolean fxThread;
+        private final EnumSet<ChangeEvent.Kind> pending = EnumSet.noneOf(ChangeEvent.Kind.class);
+        private volatile boolean closed;
+
+        Entry(Observer observer, boolean weak, boolean fxThread) {
+            this.observer = weak ? null : observer;
+            this.weakObserver = weak ? new WeakReference<>(observer) : null;
+            this.fxThread = fxThread;
+        }
+
+        void deliver(ChangeEvent event) {
+            if (fxThread) {
+                synchronized (pending) {
+                    if (!pending.isEmpty()) {
+                        // Already waiting for the JavaFX thread: the change joins that event
+                        pending.addAll(event.getKinds());
+                        return;
+                    }
+                    if (!Platform.isFxApplicationThread()) {
+                        pending.addAll(event.getKinds());
+                        Platform.runLater(this::flush);
+                        return;
+                    }
+                }
+            }
+            dispatch(event);
+        }
+
+        private void flush() {
+            ChangeEvent event;
+            synchronized (pending) {
+                event = new ChangeEvent(source, pending);
+                pending.clear();
+            }
+            dispatch(event);
+        }
+
+        private void dispatch(ChangeEvent event) {
+            if (closed) {
+                return;
+            }
+            Observer target = observer != null ? observer : weakObserver.get();
+            if (target == null) {
+                close();
+                return;
+            }
+            target.update(event);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            entries.remove(this);
+        }
+    }
+}
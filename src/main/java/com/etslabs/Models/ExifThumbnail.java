@@ -0,0 +1,109 @@
+package com.etslabs.Models;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Reads the preview that cameras embed in the EXIF block of a JPEG file (the JPEG stored in IFD1),
+ * which is usually about 160x120 and decodes far faster than the picture itself. Only the headers
+ * in front of the image data are read.
+ */
+final class ExifThumbnail {
+    private static final int SOI = 0xffd8;
+    private static final int SOS = 0xffda;
+    private static final int EOI = 0xffd9;
+    private static final int APP1 = 0xffe1;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TYPE_SHORT = 3;
+
+    private ExifThumbnail() {}
+
+    /**
+     * Returns the embedded preview of the file, or null if it is not a JPEG or has none.
+     */
+    static BufferedImage read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readUnsignedShort() != SOI) {
+                return null;
+            }
+            while (true) {
+                int marker = in.readUnsignedShort();
+                if ((marker & 0xff00) != 0xff00 || marker == SOS || marker == EOI) {
+                    return null;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (marker == APP1) {
+                    byte[] segment = new byte[length];
+                    in.readFully(segment);
+                    BufferedImage thumbnail = fromExif(segment);
+                    if (thumbnail != null) {
+                        return thumbnail;
+                    }
+                } else {
+                    skip(in, length);
+                }
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static BufferedImage fromExif(byte[] segment) throws IOException {
+        if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i'
+                || segment[3] != 'f' || segment[4] != 0 || segment[5] != 0) {
+            return null;
+        }
+        // Offsets inside the TIFF structure are relative to its header, right after "Exif\0\0"
+        ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        try {
+            int ifd0 = tiff.getInt(4);
+            int ifd1 = tiff.getInt(ifd0 + 2 + 12 * (tiff.getShort(ifd0) & 0xffff));
+            if (ifd1 <= 0) {
+                return null;
+            }
+            int offset = -1;
+            int length = -1;
+            for (int i = 0, count = tiff.getShort(ifd1) & 0xffff; i < count; i++) {
+                int entry = ifd1 + 2 + 12 * i;
+                int tag = tiff.getShort(entry) & 0xffff;
+                int value = (tiff.getShort(entry + 2) & 0xffff) == TYPE_SHORT
+                        ? tiff.getShort(entry + 8) & 0xffff : tiff.getInt(entry + 8);
+                if (tag == TAG_THUMBNAIL_OFFSET) {
+                    offset = value;
+                } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                    length = value;
+                }
+            }
+            if (offset <= 0 || length <= 0 || offset + length > tiff.limit()) {
+                return null;
+            }
+            return ImageIO.read(new ByteArrayInputStream(segment, 6 + offset, length));
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated or malformed EXIF block
+            return null;
+        }
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+}
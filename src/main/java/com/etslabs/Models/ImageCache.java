@@ -0,0 +1,111 @@
+package com.etslabs.Models;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * In-memory cache of decoded images, bounded by the bytes of their pixels. Under pressure, the
+ * images not shown by any model first drop their displayed pixels and stay cached in packed form,
+ * see {@link DecodedImage#releaseImage()}; then the least recently used ones are evicted, except
+ * those still shown. Complements the on-disk {@link DecodedImageCache}: a hit here needs no decode
+ * nor disk read at all. Used from the JavaFX thread only.
+ */
+public class ImageCache {
+    // Access order: iteration starts with the least recently used entry
+    private final LinkedHashMap<File, DecodedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Predicate<DecodedImage> inUse;
+    private long maxBytes;
+
+    /**
+     * @param inUse tells whether an image is displayed, in which case it is never evicted
+     */
+    public ImageCache(long maxBytes, Predicate<DecodedImage> inUse) {
+        this.maxBytes = maxBytes;
+        this.inUse = inUse;
+    }
+
+    /**
+     * Returns the decoded image of the file and marks it as the most recently used, or null.
+     */
+    public DecodedImage get(File file) {
+        return entries.get(file);
+    }
+
+    public boolean contains(File file) {
+        return entries.containsKey(file);
+    }
+
+    /**
+     * Caches the decoded image of the file, replacing and releasing any previous one, then evicts
+     * the least recently used images until the cache fits in its budget.
+     */
+    public void put(File file, DecodedImage decoded) {
+        DecodedImage previous = entries.put(file, decoded);
+        if (previous != null && previous != decoded) {
+            release(previous);
+        }
+        trim();
+    }
+
+    public void remove(File file) {
+        DecodedImage removed = entries.remove(file);
+        if (removed != null) {
+            release(removed);
+        }
+    }
+
+    /**
+     * Brings the cache back within its budget: releases the displayed pixels of the least recently
+     * used images that are not in use, then evicts such images until it fits.
+     */
+    public void trim() {
+        long bytes = getBytes();
+        for (DecodedImage decoded : entries.values()) {
+            if (bytes <= maxBytes) {
+                return;
+            }
+            if (!inUse.test(decoded)) {
+                bytes -= decoded.releaseImage();
+            }
+        }
+        Iterator<Map.Entry<File, DecodedImage>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            DecodedImage decoded = iterator.next().getValue();
+            if (!inUse.test(decoded)) {
+                iterator.remove();
+                bytes -= decoded.getByteCount();
+                decoded.discard();
+            }
+        }
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Bytes of pixels held by the cached images. Summed on each call, since images expand and
+     * release their displayed pixels while cached.
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (DecodedImage decoded : entries.values()) {
+            bytes += decoded.getByteCount();
+        }
+        return bytes;
+    }
+
+    private void release(DecodedImage decoded) {
+        if (!inUse.test(decoded)) {
+            decoded.discard();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.etslabs.Models;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.Toolkit;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.ClipboardOwner;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.SharedPixelBuffer;
+
+import javafx.scene.image.Image;
+
+/**
+ * Image copied from a thumbnail, with the zoom and pan it was shown with. Copying never duplicates
+ * pixels: an image rendered from an {@link ImageVersion} is kept as a reference to that version,
+ * whose tiles are shared with the history, and any other image is kept as is, since images are
+ * never modified once displayed. Pasting hands back the same image as long as it is alive.
+ *
+ * <p>The copy is also offered to the system clipboard, but only rendered for it when another
+ * application asks for the data. Once another application replaces it there, the next paste reads
+ * that data once and keeps it, so that pasting it again pastes the same image; if the export
+ * failed, the copy made in this application stays what is pasted. Used from the JavaFX thread.
+ */
+public final class ImageClipboard {
+    private static final ImageClipboard instance = new ImageClipboard();
+
+    private Content content;
+    // What this clipboard put on the system clipboard, until another application replaces it
+    private volatile SystemTransfer exported;
+    // Whether the system clipboard holds data this clipboard has not read yet: true when another
+    // application took it over, and at start, before anything is copied in this application
+    private volatile boolean importPending = true;
+
+    private ImageClipboard() {}
+
+    public static ImageClipboard getInstance() {
+        return instance;
+    }
+
+    public void copy(Image image, double scaleFactor, Point translation) {
+        Content previous = content;
+        content = new Content(image, scaleFactor, new Point(translation));
+        importPending = false;
+        if (previous != null) {
+            previous.release();
+        }
+        exportToSystemClipboard(content);
+    }
+
+    /**
+     * The image to paste: the last one copied in this application, or the image another
+     * application put on the system clipboard since. Null if there is none.
+     */
+    public Image getImage() {
+        if (importPending) {
+            importPending = false;
+            importFromSystemClipboard();
+        }
+        return content != null ? content.getImage() : null;
+    }
+
+    public double getScaleFactor() {
+        return content != null ? content.scaleFactor : 1.0;
+    }
+
+    public Point getTranslation() {
+        return content != null ? new Point(content.translation) : new Point(0, 0);
+    }
+
+    private void exportToSystemClipboard(Content copied) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return;
+        }
+        SystemTransfer transfer = new SystemTransfer(copied);
+        try {
+            Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+            exported = transfer;
+            clipboard.setContents(transfer, transfer);
+        } catch (IllegalStateException e) {
+            // Busy: the copy still works within the application, and stays what is pasted
+            exported = null;
+            transfer.lostOwnership(null, null);
+            System.out.println("Failed to export the copy to the system clipboard: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void importFromSystemClipboard() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return;
+        }
+        try {
+            Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+            if (!clipboard.isDataFlavorAvailable(DataFlavor.imageFlavor)) {
+                return;
+            }
+            java.awt.Image data = (java.awt.Image) clipboard.getData(DataFlavor.imageFlavor);
+            BufferedImage bufferedImage;
+            if (data instanceof BufferedImage) {
+                bufferedImage = (BufferedImage) data;
+            } else {
+                int width = data.getWidth(null);
+                int height = data.getHeight(null);
+                if (width <= 0 || height <= 0) {
+                    // Not loaded yet, the size is not known
+                    System.out.println("The image on the system clipboard is not available yet.");
+                    return;
+                }
+                bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+                Graphics2D g = bufferedImage.createGraphics();
+                try {
+                    g.drawImage(data, 0, 0, null);
+                } finally {
+                    g.dispose();
+                }
+            }
+            Content previous = content;
+            content = new Content(ImageConverter.bufferedImageToWritableImage(bufferedImage), 1.0, new Point(0, 0));
+            if (previous != null) {
+                previous.release();
+            }
+        } catch (IllegalStateException | UnsupportedFlavorException | IOException e) {
+            System.out.println("Failed to read the system clipboard: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Copied pixels: a reference to their version when there is one, otherwise the image itself.
+     */
+    private static final class Content {
+        private final ImageVersion version;
+        private final Image image;
+        final double scaleFactor;
+        final Point translation;
+
+        Content(Image image, double scaleFactor, Point translation) {
+            this.version = ImageVersion.find(image);
+            // The version renders the image again if it is collected meanwhile
+            this.image = version == null ? image : null;
+            this.scaleFactor = scaleFactor;
+            this.translation = translation;
+        }
+
+        Image getImage() {
+            return version != null ? version.toImage() : image;
+        }
+
+        /**
+         * Premultiplied AWT image of the pixels, sharing them when the image already has a raster.
+         * Called on the AWT thread: a version is read from its tiles, leaving its JavaFX image
+         * to the JavaFX thread.
+         */
+        BufferedImage toBufferedImage() {
+            if (version != null) {
+                BufferedImage rendered = new BufferedImage(version.getWidth(), version.getHeight(),
+                        BufferedImage.TYPE_INT_ARGB_PRE);
+                version.read(0, 0, version.getWidth(), version.getHeight(),
+                        ((DataBufferInt) rendered.getRaster().getDataBuffer()).getData());
+                return rendered;
+            }
+            SharedPixelBuffer shared = SharedPixelBuffer.of(image);
+            if (shared != null) {
+                return shared.getBufferedImage();
+            }
+            return ImageConverter.writableImageToBufferedImage(image);
+        }
+
+        Content retain() {
+            if (version != null) {
+                version.retain();
+            }
+            return this;
+        }
+
+        void release() {
+            if (version != null) {
+                version.release();
+            }
+        }
+    }
+
+    /**
+     * Lazy system clipboard entry: holds its own reference to the copied pixels and renders them
+     * only when another application reads the clipboard.
+     */
+    private final class SystemTransfer implements Transferable, ClipboardOwner {
+        private final Content content;
+        private boolean released;
+
+        SystemTransfer(Content content) {
+            this.content = content.retain();
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return new DataFlavor[] { DataFlavor.imageFlavor };
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor flavor) {
+            return DataFlavor.imageFlavor.equals(flavor);
+        }
+
+        @Override
+        public synchronized Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+            if (!isDataFlavorSupported(flavor) || released) {
+                throw new UnsupportedFlavorException(flavor);
+            }
+            return content.toBufferedImage();
+        }
+
+        @Override
+        public synchronized void lostOwnership(Clipboard clipboard, Transferable contents) {
+            if (!released) {
+                released = true;
+                content.release();
+            }
+            if (exported == this) {
+                // Replaced by another application: the next paste reads its data, once
+                exported = null;
+                importPending = true;
+            }
+        }
+    }
+}
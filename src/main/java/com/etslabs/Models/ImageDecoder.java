@@ -0,0 +1,181 @@
+package com.etslabs.Models;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+
+import com.etslabs.Metrics.DecodeEvent;
+import com.etslabs.Metrics.Metrics;
+
+/**
+ * Helpers around {@link ImageReader} so that callers can attach listeners, abort a decode
+ * or read only part of an image instead of going through {@link ImageIO#read(File)}.
+ */
+public final class ImageDecoder {
+
+    private ImageDecoder() {}
+
+    /**
+     * Opens a reader positioned on the given file. The reader must be released with {@link #close}.
+     */
+    public static ImageReader open(File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No image reader for " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input, false, true);
+        return reader;
+    }
+
+    public static void close(ImageReader reader) {
+        Object input = reader.getInput();
+        reader.dispose();
+        if (input instanceof ImageInputStream) {
+            try {
+                ((ImageInputStream) input).close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Decodes the first image of the file. The hook, when not null, is given the reader before
+     * decoding starts so that it can register listeners or keep it around to abort the read.
+     *
+     * @return the image, or null if the read was aborted
+     */
+    public static BufferedImage read(File file, Consumer<ImageReader> readerHook) throws IOException {
+        return decode(file, readerHook, 0, 0);
+    }
+
+    /**
+     * Decodes the first image with the largest integer subsampling that still leaves at least
+     * enough pixels to fill a view of the given size with the aspect ratio preserved.
+     *
+     * @return the image, or null if the read was aborted
+     */
+    public static BufferedImage readSubsampled(File file, int viewWidth, int viewHeight,
+                                               Consumer<ImageReader> readerHook) throws IOException {
+        return decode(file, readerHook, viewWidth, viewHeight);
+    }
+
+    /**
+     * Decodes the first image, subsampled for the view size unless it is 0.
+     */
+    private static BufferedImage decode(File file, Consumer<ImageReader> readerHook,
+                                        int viewWidth, int viewHeight) throws IOException {
+        long start = Metrics.now();
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        ImageReader reader = open(file);
+        try {
+            AbortListener abortListener = new AbortListener();
+            reader.addIIOReadProgressListener(abortListener);
+            if (readerHook != null) {
+                readerHook.accept(reader);
+            }
+            int subsampling = viewWidth > 0 && viewHeight > 0
+                    ? subsamplingFor(reader.getWidth(0), reader.getHeight(0), viewWidth, viewHeight)
+                    : 1;
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            BufferedImage image = reader.read(0, param);
+            event.end();
+            if (event.shouldCommit() && image != null) {
+                event.file = file.getPath();
+                event.width = image.getWidth();
+                event.height = image.getHeight();
+                event.subsampling = subsampling;
+                event.commit();
+            }
+            Metrics.DECODE.recordSince(start);
+            return abortListener.aborted ? null : image;
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Largest subsampling factor keeping the image at least as large as its fitted size in the view.
+     */
+    public static int subsamplingFor(int width, int height, int viewWidth, int viewHeight) {
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return 1;
+        }
+        double ratio = Math.max((double) width / viewWidth, (double) height / viewHeight);
+        return Math.max(1, (int) Math.floor(ratio));
+    }
+
+    /**
+     * Returns {width, height} of the first image without decoding any pixels.
+     */
+    public static int[] readSize(File file) throws IOException {
+        ImageReader reader = open(file);
+        try {
+            return new int[] { reader.getWidth(0), reader.getHeight(0) };
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Records whether a read was aborted, since readers return a partial image in that case.
+     */
+    private static class AbortListener implements IIOReadProgressListener {
+        private volatile boolean aborted;
+
+        @Override
+        public void readAborted(ImageReader source) {
+            aborted = true;
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.etslabs.Models;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+
+import com.etslabs.Converter.SharedPixelBuffer;
+import com.etslabs.Metrics.ImageLoadEvent;
+import com.etslabs.Metrics.Metrics;
+
+import javafx.application.Platform;
+
+/**
+ * Decodes image files on a small worker pool and hands the result back on the JavaFX thread.
+ * Starting a new load cancels the one in flight, aborting its {@link ImageReader}.
+ */
+public class ImageLoader {
+
+    /**
+     * Callbacks of a load, all invoked on the JavaFX application thread.
+     */
+    public interface LoadListener {
+        void loaded(DecodedImage image);
+
+        /**
+         * Called once by progressive loads, as soon as a first pass of the image is decoded. The
+         * image is a preview that keeps being refined in place until {@link #loaded} is called.
+         */
+        default void partial(DecodedImage image) {
+        }
+
+        default void progress(double fraction) {
+        }
+
+        default void failed(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Decoding strategy run on the worker thread, such as {@link ImageModel#decode}.
+     */
+    public interface Decoder {
+        DecodedImage decode(File file, Consumer<ImageReader> readerHook) throws IOException;
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "image-loader-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private LoadTask current;
+
+    /**
+     * Starts decoding the file in the background. Must be called from the JavaFX thread.
+     */
+    public Future<DecodedImage> load(File file, LoadListener listener) {
+        return load(file, ImageModel::decode, listener);
+    }
+
+    /**
+     * Starts decoding the file in the background with the given strategy.
+     * Must be called from the JavaFX thread.
+     */
+    public Future<DecodedImage> load(File file, Decoder decoder, LoadListener listener) {
+        return start(new LoadTask(file, decoder, listener, false));
+    }
+
+    /**
+     * Like {@link #load(File, Decoder, LoadListener)}, but progressive JPEGs and interlaced PNGs are
+     * shown while they decode: the listener gets the first pass through {@link LoadListener#partial}
+     * and that image is updated in place as further passes arrive.
+     */
+    public Future<DecodedImage> loadProgressive(File file, Decoder decoder, LoadListener listener) {
+        return start(new LoadTask(file, decoder, listener, true));
+    }
+
+    private Future<DecodedImage> start(LoadTask task) {
+        cancel();
+        current = task;
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancels the load in flight, if any.
+     */
+    public void cancel() {
+        if (current != null) {
+            current.cancel(true);
+            current = null;
+        }
+    }
+
+    private class LoadTask extends FutureTask<DecodedImage> implements IIOReadProgressListener {
+        private final File file;
+        private final Decoder decoder;
+        private final LoadListener listener;
+        private final ProgressivePasses passes;
+        private final ImageLoadEvent event = new ImageLoadEvent();
+        private final long start = Metrics.now();
+        private final AtomicBoolean refreshPending = new AtomicBoolean();
+        private volatile ImageReader reader;
+        private int lastPercent = -1;
+        private boolean partialShown;
+
+        LoadTask(File file, Decoder decoder, LoadListener listener, boolean progressive) {
+            super(() -> null);
+            this.file = file;
+            this.decoder = decoder;
+            this.listener = listener;
+            this.passes = progressive ? new ProgressivePasses(this::passDecoded) : null;
+            event.begin();
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                DecodedImage decoded = decoder.decode(file, this::attach);
+                if (passes != null && reader != null) {
+                    // Tiled images keep their reader for later tile reads, which are not passes to show
+                    reader.removeIIOReadUpdateListener(passes);
+                }
+                if (isCancelled()) {
+                    decoded.discard();
+                    return;
+                }
+                set(decoded);
+                // A cancel landing since the check above turns set() into a no-op: nobody gets the result
+                if (isCancelled()) {
+                    decoded.discard();
+                }
+            } catch (Exception e) {
+                setException(e);
+            }
+        }
+
+        private void attach(ImageReader reader) {
+            this.reader = reader;
+            reader.addIIOReadProgressListener(this);
+            if (passes != null) {
+                reader.addIIOReadUpdateListener(passes);
+            }
+            if (isCancelled()) {
+                reader.abort();
+            }
+        }
+
+        /**
+         * Runs on the decoding thread after each pass: the first one is published, later ones only
+         * ask the JavaFX thread to upload the updated pixels.
+         */
+        private void passDecoded(SharedPixelBuffer buffer) {
+            if (!partialShown) {
+                partialShown = true;
+                DecodedImage decoded;
+                try {
+                    decoded = new DecodedImage(buffer.getFxImage(), reader.getWidth(0), reader.getHeight(0));
+                } catch (IOException e) {
+                    decoded = new DecodedImage(buffer.getFxImage(), buffer.getWidth(), buffer.getHeight());
+                }
+                DecodedImage partial = decoded;
+                Platform.runLater(() -> {
+                    if (current == this) {
+                        listener.partial(partial);
+                    }
+                });
+            } else if (refreshPending.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    refreshPending.set(false);
+                    buffer.markDirty();
+                });
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            ImageReader activeReader = reader;
+            if (cancelled && activeReader != null) {
+                activeReader.abort();
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            Platform.runLater(() -> {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.file = file.getPath();
+                    event.progressive = passes != null;
+                    event.cancelled = current != this;
+                    event.commit();
+                }
+                if (current != this) {
+                    discardResult();
+                    return;
+                }
+                Metrics.LOAD.recordSince(start);
+                current = null;
+                try {
+                    listener.loaded(get());
+                } catch (CancellationException e) {
+                    // Replaced by a newer load
+                } catch (ExecutionException e) {
+                    listener.failed(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        /**
+         * Releases the result of a load that completed but was replaced before it could be handed
+         * to the listener, e.g. the open reader of a tiled image.
+         */
+        private void discardResult() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                get().discard();
+            } catch (ExecutionException e) {
+                // Failed: nothing to release
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            int percent = (int) percentageDone;
+            if (percent != lastPercent) {
+                lastPercent = percent;
+                Platform.runLater(() -> {
+                    if (current == this) {
+                        listener.progress(percent / 100.0);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+}
@@ -2,61 +2,229 @@ package com.etslabs.Models;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.function.Consumer;
 
-import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 
-import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.PackedRaster;
 import com.etslabs.Interfaces.Observer;
+import com.etslabs.Interfaces.Subscription;
 
 import javafx.scene.image.Image;
 
+/**
+ * The image shown by one or more perspectives. It may be changed from any thread, e.g. by a
+ * background decode; readers never lock and always see an image together with its source.
+ */
 public class ImageModel {
-    private Image image;
-    private final List<Observer> observers = new ArrayList<>();
+    private static final EnumSet<ChangeEvent.Kind> IMAGE_CHANGED = EnumSet.of(ChangeEvent.Kind.IMAGE);
+
+    private volatile Current current = new Current(null, null);
+    private final EventBus bus = new EventBus(this);
+    private int batchDepth;
+    private boolean changedInBatch;
 
     public Image getImage() {
-        return image;
+        return current.image;
+    }
+
+    /**
+     * Returns the tiled source of the current image, or null when the current image
+     * was decoded as a single raster (or has been replaced, e.g. by a paste).
+     */
+    public TiledImage getTiledImage() {
+        Current current = this.current;
+        return current.isPublished() ? current.published.getTiledImage() : null;
+    }
+
+    /**
+     * True when the current image is a reduced-resolution preview of its file.
+     */
+    public boolean isPreview() {
+        Current current = this.current;
+        return current.isPublished() && current.published.isPreview();
+    }
+
+    /**
+     * Width of the current image in source pixels, which differs from the width of
+     * {@link #getImage()} for previews and tiled images.
+     */
+    public double getSourceWidth() {
+        Current current = this.current;
+        if (current.isPublished()) {
+            return current.published.getSourceWidth();
+        }
+        return current.image != null ? current.image.getWidth() : 0;
+    }
+
+    public double getSourceHeight() {
+        Current current = this.current;
+        if (current.isPublished()) {
+            return current.published.getSourceHeight();
+        }
+        return current.image != null ? current.image.getHeight() : 0;
     }
 
     public void setImage(Image image) {
-        this.image = image;
-        notifyObservers();
+        synchronized (this) {
+            current = new Current(image, current.published);
+        }
+        changed();
     }
 
-    public void addObserver(Observer observer) {
-        observers.add(observer);
+    public Subscription subscribe(Observer observer) {
+        return bus.subscribe(observer);
     }
 
-    public void removeObserver(Observer observer) {
-        observers.remove(observer);
+    public Subscription subscribeWeakly(Observer observer) {
+        return bus.subscribeWeakly(observer);
     }
 
-    private void notifyObservers() {
-        for (Observer observer : observers) {
-            observer.update();
+    public Subscription subscribeOnFxThread(Observer observer) {
+        return bus.subscribeOnFxThread(observer);
+    }
+
+    /**
+     * Runs the changes as one transaction: observers are notified once at the end if anything changed.
+     */
+    public void batch(Runnable changes) {
+        beginBatch();
+        try {
+            changes.run();
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Defers notifications until the matching {@link #endBatch()}, then notifies once if anything changed.
+     */
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    public void endBatch() {
+        synchronized (this) {
+            if (--batchDepth > 0 || !changedInBatch) {
+                return;
+            }
+            changedInBatch = false;
+        }
+        bus.publish(IMAGE_CHANGED);
+    }
+
+    private void changed() {
+        synchronized (this) {
+            if (batchDepth > 0) {
+                changedInBatch = true;
+                return;
+            }
         }
+        // Observers run outside the lock, so they may call back into the model
+        bus.publish(IMAGE_CHANGED);
     }
 
     public void loadImageFromFile(File file) {
         try {
-            BufferedImage bufferedImage = ImageIO.read(file);
-            if (bufferedImage.getType() != BufferedImage.TYPE_INT_ARGB) {
-                BufferedImage argbImage = new BufferedImage(
-                        bufferedImage.getWidth(),
-                        bufferedImage.getHeight(),
-                        BufferedImage.TYPE_INT_ARGB
-                );
-                argbImage.getGraphics().drawImage(bufferedImage, 0, 0, null);
-                bufferedImage = argbImage;
+            DecodedImage previous = current.published;
+            DecodedImage decoded = decode(file, null);
+            publish(decoded);
+            // This model decoded the previous image itself, so it is the one to release it
+            if (previous != null && previous.getTiledImage() != decoded.getTiledImage()) {
+                previous.discard();
             }
-            Image fxImage = ImageConverter.bufferedImageToWritableImage(bufferedImage);
-            setImage(fxImage);
-            System.out.println("Image loaded successfully: " + fxImage);
         } catch (Exception e) {
             System.out.println("Failed to load image: " + e.getMessage());
             e.printStackTrace();
         }
-    }    
+    }
+
+    /**
+     * Makes a decoded image the current one. The previous one is not released: decoded images
+     * belong to whoever decoded them, such as the {@link Workspace} cache.
+     */
+    public void publish(DecodedImage decoded) {
+        synchronized (this) {
+            current = new Current(decoded.getImage(), decoded);
+        }
+        changed();
+    }
+
+    /**
+     * Decodes a file without touching the model, so that it can run on any thread.
+     * Files above the tiling threshold only get their overview decoded.
+     *
+     * @param readerHook if not null, receives each reader before it starts decoding
+     */
+    public static DecodedImage decode(File file, Consumer<ImageReader> readerHook) throws IOException {
+        int[] size = ImageDecoder.readSize(file);
+        if (TiledImage.shouldTile(size[0], size[1])) {
+            TiledImage tiled = new TiledImage(file, TiledImage.DEFAULT_CACHE_BYTES, readerHook);
+            return new DecodedImage(tiled.getOverview(), tiled);
+        }
+
+        DecodedImageCache cache = DecodedImageCache.getInstance();
+        PackedRaster cached = cache.getPacked(file);
+        if (cached != null) {
+            return new DecodedImage(cached, cached.getWidth(), cached.getHeight());
+        }
+
+        BufferedImage bufferedImage = ImageDecoder.read(file, readerHook);
+        if (bufferedImage == null) {
+            throw new IOException("Decoding aborted: " + file);
+        }
+        // Kept in the narrowest storage of the source, e.g. one byte per pixel for gray scans
+        PackedRaster pixels = PackedRaster.of(bufferedImage);
+        cache.put(file, pixels);
+        return new DecodedImage(pixels, pixels.getWidth(), pixels.getHeight());
+    }
+
+    /**
+     * Decodes a reduced-resolution version of the file, subsampled so that it still covers a view
+     * of the given size without upscaling. Tiled files return their overview, and files too small
+     * to subsample their full decode. Previews are kept in the {@link DecodedImageCache} under their
+     * subsampling, so that opening the file again reads them back instead of decoding it.
+     */
+    public static DecodedImage decodePreview(File file, int viewWidth, int viewHeight,
+                                             Consumer<ImageReader> readerHook) throws IOException {
+        int[] size = ImageDecoder.readSize(file);
+        int subsampling = ImageDecoder.subsamplingFor(size[0], size[1], viewWidth, viewHeight);
+        if (TiledImage.shouldTile(size[0], size[1]) || subsampling == 1) {
+            return decode(file, readerHook);
+        }
+
+        DecodedImageCache cache = DecodedImageCache.getInstance();
+        String variant = "subsampling-" + subsampling;
+        PackedRaster cached = cache.getPacked(file, variant);
+        if (cached != null) {
+            return new DecodedImage(cached, size[0], size[1]);
+        }
+
+        BufferedImage bufferedImage = ImageDecoder.readSubsampled(file, viewWidth, viewHeight, readerHook);
+        if (bufferedImage == null) {
+            throw new IOException("Decoding aborted: " + file);
+        }
+        PackedRaster pixels = PackedRaster.of(bufferedImage);
+        cache.put(file, variant, pixels);
+        return new DecodedImage(pixels, size[0], size[1]);
+    }
+
+    /**
+     * The current image and the decoded image it was last published from, replaced as a whole.
+     */
+    private static final class Current {
+        final Image image;
+        final DecodedImage published;
+
+        Current(Image image, DecodedImage published) {
+            this.image = image;
+            this.published = published;
+        }
+
+        boolean isPublished() {
+            return published != null && published.isImage(image);
+        }
+    }
 }
@@ -0,0 +1,303 @@
+package com.etslabs.Models;
+
+import java.awt.Rectangle;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.etslabs.Converter.SharedPixelBuffer;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+
+/**
+ * Immutable version of an image, stored as tiles of premultiplied ARGB pixels. A version derived by
+ * editing a region shares every tile outside that region with the version it came from, so a
+ * history of edits costs memory in proportion to the regions they touched.
+ *
+ * <p>Versions and tiles are reference counted: whoever keeps a version (typically a command) holds
+ * one reference and gives it back with {@link #release()}; a tile is freed once no version uses it.
+ * The pixels are turned back into a JavaFX image only when the version is displayed.
+ */
+public final class ImageVersion {
+    public static final int TILE_SIZE = 256;
+
+    private static final Map<Image, WeakReference<ImageVersion>> versions = new WeakHashMap<>();
+    private static final AtomicLong liveTileBytes = new AtomicLong();
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final Tile[] tiles;
+    private final AtomicInteger references = new AtomicInteger(1);
+    // Guarded by this version
+    private WeakReference<Image> image = new WeakReference<>(null);
+
+    private ImageVersion(int width, int height, Tile[] tiles) {
+        this.width = width;
+        this.height = height;
+        this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Returns a reference to the version the image was rendered from, or a new version holding a
+     * copy of its pixels. The caller must {@link #release()} it.
+     */
+    public static ImageVersion of(Image image) {
+        ImageVersion existing = find(image);
+        if (existing != null) {
+            return existing;
+        }
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int[] pixels;
+        SharedPixelBuffer shared = SharedPixelBuffer.of(image);
+        if (shared != null) {
+            pixels = shared.getPixels();
+        } else {
+            pixels = new int[SharedPixelBuffer.pixelCount(width, height)];
+            image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(),
+                    pixels, 0, width);
+        }
+        ImageVersion version = of(pixels, width, height);
+        synchronized (version) {
+            version.register(image);
+        }
+        return version;
+    }
+
+    /**
+     * Returns a reference to the version the image was rendered from, or null if it was not rendered
+     * from a live version. Never copies pixels. The caller must {@link #release()} the version.
+     */
+    public static ImageVersion find(Image image) {
+        synchronized (versions) {
+            WeakReference<ImageVersion> existing = versions.get(image);
+            ImageVersion version = existing != null ? existing.get() : null;
+            return version != null && version.tryRetain() ? version : null;
+        }
+    }
+
+    /**
+     * New version holding a copy of a {@code width x height} raster, sharing no tile with other versions.
+     * The caller must {@link #release()} it.
+     */
+    public static ImageVersion of(int[] pixels, int width, int height) {
+        ImageVersion version = new ImageVersion(width, height, new Tile[tileCount(width, height)]);
+        for (int row = 0; row < version.rows; row++) {
+            for (int column = 0; column < version.columns; column++) {
+                version.tiles[row * version.columns + column] = version.copyTile(pixels, column, row);
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Returns a new version whose pixels inside {@code region} come from {@code pixels}, a raster of
+     * {@code pixelsWidth} pixels per row whose top-left corner is at {@code (originX, originY)} of
+     * this image. Tiles outside the region, or left unchanged by it, are shared with this version.
+     */
+    public ImageVersion withRegion(int[] pixels, int originX, int originY, int pixelsWidth, Rectangle region) {
+        Rectangle bounds = region.intersection(new Rectangle(0, 0, width, height));
+        Tile[] derived = new Tile[tiles.length];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int index = row * columns + column;
+                Tile tile = tiles[index];
+                Rectangle touched = bounds.intersection(new Rectangle(
+                        column * TILE_SIZE, row * TILE_SIZE, tile.width, tile.height));
+                Tile edited = touched.isEmpty() ? null : tile.edit(pixels, originX, originY, pixelsWidth, touched,
+                        column * TILE_SIZE, row * TILE_SIZE);
+                derived[index] = edited != null ? edited : tile.retain();
+            }
+        }
+        return new ImageVersion(width, height, derived);
+    }
+
+    /**
+     * Copies the pixels of a rectangle of this version into {@code dst}, row after row.
+     */
+    public void read(int x, int y, int w, int h, int[] dst) {
+        for (int row = y / TILE_SIZE; row <= (y + h - 1) / TILE_SIZE; row++) {
+            for (int column = x / TILE_SIZE; column <= (x + w - 1) / TILE_SIZE; column++) {
+                Tile tile = tiles[row * columns + column];
+                int tileX = column * TILE_SIZE;
+                int tileY = row * TILE_SIZE;
+                int fromX = Math.max(x, tileX);
+                int toX = Math.min(x + w, tileX + tile.width);
+                for (int line = Math.max(y, tileY); line < Math.min(y + h, tileY + tile.height); line++) {
+                    System.arraycopy(tile.pixels(), (line - tileY) * tile.width + fromX - tileX,
+                            dst, (line - y) * w + fromX - x, toX - fromX);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the image of this version, rendering it if it is not displayed anywhere any more.
+     * Safe from any thread: concurrent callers get the same image, rendered once.
+     */
+    public synchronized Image toImage() {
+        Image rendered = image.get();
+        if (rendered == null) {
+            SharedPixelBuffer buffer = SharedPixelBuffer.allocate(width, height);
+            read(0, 0, width, height, buffer.getPixels());
+            rendered = buffer.getFxImage();
+            register(rendered);
+        }
+        return rendered;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Bytes of the tiles of this version that {@code previous} does not share, i.e. the memory this
+     * version added on top of it.
+     */
+    public long getBytesAddedTo(ImageVersion previous) {
+        long bytes = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (previous == null || previous.tiles.length != tiles.length || previous.tiles[i] != tiles[i]) {
+                bytes += tiles[i].getBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes of all the tiles still used by some version.
+     */
+    public static long getLiveTileBytes() {
+        return liveTileBytes.get();
+    }
+
+    public ImageVersion retain() {
+        if (!tryRetain()) {
+            throw new IllegalStateException("Image version already released");
+        }
+        return this;
+    }
+
+    /**
+     * Gives back a reference; the tiles of the version are released with the last one.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            for (Tile tile : tiles) {
+                tile.release();
+            }
+        }
+    }
+
+    private boolean tryRetain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void register(Image rendered) {
+        image = new WeakReference<>(rendered);
+        synchronized (versions) {
+            versions.put(rendered, new WeakReference<>(this));
+        }
+    }
+
+    private Tile copyTile(int[] pixels, int column, int row) {
+        int tileX = column * TILE_SIZE;
+        int tileY = row * TILE_SIZE;
+        Tile tile = new Tile(Math.min(TILE_SIZE, width - tileX), Math.min(TILE_SIZE, height - tileY));
+        for (int line = 0; line < tile.height; line++) {
+            System.arraycopy(pixels, (tileY + line) * width + tileX,
+                    tile.pixels, line * tile.width, tile.width);
+        }
+        return tile;
+    }
+
+    private static int tileCount(int width, int height) {
+        return ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    /**
+     * Immutable block of pixels, shared by every version that did not change it.
+     */
+    private static final class Tile {
+        private final int width;
+        private final int height;
+        private int[] pixels;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Tile(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = new int[width * height];
+            liveTileBytes.addAndGet(getBytes());
+        }
+
+        int[] pixels() {
+            int[] current = pixels;
+            if (current == null) {
+                throw new IllegalStateException("Tile already released");
+            }
+            return current;
+        }
+
+        long getBytes() {
+            return 4L * width * height;
+        }
+
+        Tile retain() {
+            references.incrementAndGet();
+            return this;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                pixels = null;
+                liveTileBytes.addAndGet(-getBytes());
+            }
+        }
+
+        /**
+         * Copy of this tile with {@code touched} (in image coordinates) taken from the edited raster,
+         * or null if the edit leaves the tile as it is.
+         */
+        Tile edit(int[] edited, int originX, int originY, int editedWidth, Rectangle touched, int tileX, int tileY) {
+            int[] source = pixels();
+            boolean changed = false;
+            for (int line = touched.y; line < touched.y + touched.height && !changed; line++) {
+                int from = (line - tileY) * width + touched.x - tileX;
+                int editedFrom = (line - originY) * editedWidth + touched.x - originX;
+                changed = !Arrays.equals(source, from, from + touched.width,
+                        edited, editedFrom, editedFrom + touched.width);
+            }
+            if (!changed) {
+                return null;
+            }
+            Tile copy = new Tile(width, height);
+            System.arraycopy(source, 0, copy.pixels, 0, source.length);
+            for (int line = touched.y; line < touched.y + touched.height; line++) {
+                System.arraycopy(edited, (line - originY) * editedWidth + touched.x - originX,
+                        copy.pixels, (line - tileY) * width + touched.x - tileX, touched.width);
+            }
+            return copy;
+        }
+    }
+}
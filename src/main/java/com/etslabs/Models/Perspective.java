@@ -1,25 +1,31 @@
 package com.etslabs.Models;
 
 import java.awt.Point;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumSet;
 
 import com.etslabs.Interfaces.Observer;
+import com.etslabs.Interfaces.Subscription;
 
 import javafx.scene.image.Image;
 
+/**
+ * Zoom and pan applied to an image model. Like the model, it may be changed from any thread;
+ * UI observers should subscribe with {@link #subscribeOnFxThread}.
+ */
 public class Perspective {
-    private double scaleFactor = 1.0;
-    private Point translation = new Point(0, 0);
+    private volatile double scaleFactor = 1.0;
+    private volatile Point translation = new Point(0, 0);
     private final ImageModel imageModel;
-    private final List<Observer> observers = new ArrayList<>();
+    private final EventBus bus = new EventBus(this);
+    private int batchDepth;
+    private final EnumSet<ChangeEvent.Kind> pendingChanges = EnumSet.noneOf(ChangeEvent.Kind.class);
+    // Held here because the model only references it weakly: a perspective dropped by its view
+    // must not be kept alive, and notified, by an image model that outlives it
+    private final Observer imageObserver = () -> changed(ChangeEvent.Kind.IMAGE);
 
     public Perspective(ImageModel imageModel) {
         this.imageModel = imageModel;
-        this.imageModel.addObserver(() -> {
-            System.out.println("Perspective: ImageModel changed, notifying observers.");
-            notifyObservers();
-        });
+        this.imageModel.subscribeWeakly(imageObserver);
     }
 
     public double getScaleFactor() {
@@ -27,13 +33,23 @@ public class Perspective {
     }
 
     public void setScaleFactor(double scaleFactor) {
-        this.scaleFactor = scaleFactor;
-        notifyObservers();
+        synchronized (this) {
+            if (this.scaleFactor == scaleFactor) {
+                return;
+            }
+            this.scaleFactor = scaleFactor;
+        }
+        changed(ChangeEvent.Kind.SCALE);
     }
 
     public void setTranslation(Point translation) {
-        this.translation = translation;
-        notifyObservers();
+        synchronized (this) {
+            if (this.translation.equals(translation)) {
+                return;
+            }
+            this.translation = translation;
+        }
+        changed(ChangeEvent.Kind.TRANSLATION);
     }
 
     public Point getTranslation() {
@@ -52,17 +68,78 @@ public class Perspective {
         imageModel.setImage(image);
     }
 
-    public void addObserver(Observer observer) {
-        observers.add(observer);
+    /**
+     * Sets scale, translation and image at once, notifying observers a single time.
+     */
+    public void restore(double scaleFactor, Point translation, Image image) {
+        batch(() -> {
+            setScaleFactor(scaleFactor);
+            setTranslation(new Point(translation));
+            if (imageModel.getImage() != image) {
+                setImage(image);
+            }
+        });
+    }
+
+    /**
+     * Runs the changes as one transaction: observers get a single event listing everything that changed.
+     */
+    public void batch(Runnable changes) {
+        beginBatch();
+        try {
+            changes.run();
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Defers notifications until the matching {@link #endBatch()}; observers are then notified
+     * once if anything changed. Changes of the image model made meanwhile are folded in too.
+     */
+    public synchronized void beginBatch() {
+        batchDepth++;
     }
 
-    public void removeObserver(Observer observer) {
-        observers.remove(observer);
+    public void endBatch() {
+        EnumSet<ChangeEvent.Kind> changes;
+        synchronized (this) {
+            if (--batchDepth > 0) {
+                return;
+            }
+            changes = takePendingChanges();
+        }
+        bus.publish(changes);
+    }
+
+    public Subscription subscribe(Observer observer) {
+        return bus.subscribe(observer);
+    }
+
+    public Subscription subscribeWeakly(Observer observer) {
+        return bus.subscribeWeakly(observer);
     }
 
-    private void notifyObservers() {
-        for (Observer observer : observers) {
-            observer.update();
+    public Subscription subscribeOnFxThread(Observer observer) {
+        return bus.subscribeOnFxThread(observer);
+    }
+
+    private void changed(ChangeEvent.Kind kind) {
+        EnumSet<ChangeEvent.Kind> changes;
+        synchronized (this) {
+            pendingChanges.add(kind);
+            if (batchDepth > 0) {
+                return;
+            }
+            changes = takePendingChanges();
         }
+        // Observers run outside the lock, so they may call back into the perspective
+        bus.publish(changes);
+    }
+
+    private EnumSet<ChangeEvent.Kind> takePendingChanges() {
+        EnumSet<ChangeEvent.Kind> changes = EnumSet.copyOf(pendingChanges);
+        pendingChanges.clear();
+        return changes;
     }
 }
@@ -0,0 +1,102 @@
+package com.etslabs.Models;
+
+import java.awt.image.BufferedImage;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+
+import com.etslabs.Converter.SharedPixelBuffer;
+
+/**
+ * Copies each completed pass of a progressive JPEG or interlaced PNG decode into a shared buffer
+ * that can be displayed while the decode goes on. Pixels of sparse passes are spread over the
+ * block they stand for, so the first pass already covers the whole image.
+ */
+class ProgressivePasses implements IIOReadUpdateListener {
+    private final Consumer<SharedPixelBuffer> passListener;
+    private SharedPixelBuffer buffer;
+    private int[] row;
+    private int minX;
+    private int minY;
+    private int periodX = 1;
+    private int periodY = 1;
+
+    /**
+     * @param passListener called on the decoding thread after each pass, always with the same buffer
+     */
+    ProgressivePasses(Consumer<SharedPixelBuffer> passListener) {
+        this.passListener = passListener;
+    }
+
+    @Override
+    public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                            int minX, int minY, int periodX, int periodY, int[] bands) {
+        this.minX = minX;
+        this.minY = minY;
+        this.periodX = Math.max(1, periodX);
+        this.periodY = Math.max(1, periodY);
+    }
+
+    @Override
+    public void passComplete(ImageReader source, BufferedImage theImage) {
+        int width = theImage.getWidth();
+        int height = theImage.getHeight();
+        if (buffer == null) {
+            buffer = SharedPixelBuffer.allocate(width, height);
+            row = new int[width];
+        } else if (buffer.getWidth() != width || buffer.getHeight() != height) {
+            return;
+        }
+        int[] pixels = buffer.getPixels();
+        for (int y = firstSample(minY, periodY); y < height; y += periodY) {
+            theImage.getRGB(0, y, width, 1, row, 0, width);
+            int blockBottom = Math.min(height, y + periodY);
+            for (int x = firstSample(minX, periodX); x < width; x += periodX) {
+                int argb = premultiply(row[x]);
+                int blockRight = Math.min(width, x + periodX);
+                for (int blockY = y; blockY < blockBottom; blockY++) {
+                    int offset = blockY * width;
+                    for (int blockX = x; blockX < blockRight; blockX++) {
+                        pixels[offset + blockX] = argb;
+                    }
+                }
+            }
+        }
+        passListener.accept(buffer);
+    }
+
+    private static int firstSample(int min, int period) {
+        return min >= 0 ? min : min + period * ((-min + period - 1) / period);
+    }
+
+    private static int premultiply(int argb) {
+        int alpha = argb >>> 24;
+        if (alpha == 0xff) {
+            return argb;
+        }
+        int red = ((argb >> 16) & 0xff) * alpha / 0xff;
+        int green = ((argb >> 8) & 0xff) * alpha / 0xff;
+        int blue = (argb & 0xff) * alpha / 0xff;
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    @Override
+    public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height,
+                            int periodX, int periodY, int[] bands) {
+    }
+
+    @Override
+    public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                     int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+    }
+
+    @Override
+    public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width,
+                                int height, int periodX, int periodY, int[] bands) {
+    }
+
+    @Override
+    public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+    }
+}
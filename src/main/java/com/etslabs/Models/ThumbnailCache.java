@@ -0,0 +1,142 @@
+package com.etslabs.Models;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.etslabs.Converter.SharedPixelBuffer;
+
+/**
+ * On-disk cache of thumbnails, stored compressed: JPEG for opaque thumbnails and PNG for those
+ * with transparency, a few kilobytes each instead of the 4 bytes per pixel of a
+ * {@link DecodedImageCache} entry. Entries are keyed by path, size and modification time of the
+ * source file; the oldest used entries are evicted once the cache grows past its size cap.
+ *
+ * <p>A lost entry only costs decoding the thumbnail again, so entries are written without forcing
+ * them to disk; writing to a temporary file renamed over the entry still keeps partial writes out.
+ */
+public class ThumbnailCache {
+    private static final String SUFFIX = ".thumb";
+    private static final float JPEG_QUALITY = 0.85f;
+
+    // Sized by the writer thread only
+    private final CacheDirectory entries;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "thumbnail-cache-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ThumbnailCache(Path directory, long maxBytes) {
+        this.entries = new CacheDirectory(directory, SUFFIX, maxBytes);
+    }
+
+    /**
+     * Returns the cached thumbnail of the file, or null if it is not cached or the file changed.
+     */
+    public SharedPixelBuffer get(File source) {
+        Path entry = entries.entryFor(source, null);
+        if (entry == null || !Files.isRegularFile(entry)) {
+            return null;
+        }
+        try {
+            BufferedImage decoded = ImageIO.read(entry.toFile());
+            if (decoded == null) {
+                return null;
+            }
+            SharedPixelBuffer thumbnail = SharedPixelBuffer.allocate(decoded.getWidth(), decoded.getHeight());
+            draw(decoded, thumbnail.getBufferedImage());
+            CacheDirectory.touch(entry);
+            return thumbnail;
+        } catch (IOException e) {
+            System.out.println("Thumbnail cache read failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Compresses and stores the thumbnail of the file in the background. The buffer must not be
+     * modified afterwards.
+     */
+    public void put(File source, SharedPixelBuffer thumbnail) {
+        Path entry = entries.entryFor(source, null);
+        if (entry == null) {
+            return;
+        }
+        writer.execute(() -> {
+            try {
+                entries.evict(write(entry, thumbnail));
+            } catch (IOException e) {
+                System.out.println("Thumbnail cache write failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private long write(Path entry, SharedPixelBuffer thumbnail) throws IOException {
+        boolean opaque = true;
+        for (int pixel : thumbnail.getPixels()) {
+            if (pixel >>> 24 != 0xff) {
+                opaque = false;
+                break;
+            }
+        }
+        // Neither writer takes premultiplied pixels, and JPEG takes no alpha at all
+        BufferedImage image = new BufferedImage(thumbnail.getWidth(), thumbnail.getHeight(),
+                opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        draw(thumbnail.getBufferedImage(), image);
+        Path temp = entries.createTempFile();
+        try {
+            if (opaque) {
+                writeJpeg(image, temp);
+            } else if (!ImageIO.write(image, "png", temp.toFile())) {
+                throw new IOException("No PNG writer");
+            }
+            long size = Files.size(temp);
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return size;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeJpeg(BufferedImage image, Path path) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG writer");
+        }
+        ImageWriter jpegWriter = writers.next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(path.toFile())) {
+            ImageWriteParam param = jpegWriter.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            jpegWriter.setOutput(out);
+            jpegWriter.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            jpegWriter.dispose();
+        }
+    }
+
+    private static void draw(BufferedImage source, BufferedImage target) {
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(source, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.etslabs.Models;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.SharedPixelBuffer;
+import com.etslabs.Metrics.Metrics;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+/**
+ * Produces small previews of image files for the folder browser, on a bounded pool of worker
+ * threads. A preview comes, from cheapest to costliest, from the on-disk thumbnail cache, from the
+ * EXIF preview embedded in JPEG files, or from a subsampled decode; new ones are written to the
+ * cache, so that a folder opened again shows at once. The last previews shown are also kept in memory.
+ */
+public class ThumbnailGenerator {
+    /**
+     * Largest side of a preview, in pixels.
+     */
+    public static final int SIZE = 160;
+
+    // A 160x120 thumbnail is about 77 KB as displayed: this keeps a few hundred, several screens of the browser
+    private static final long MEMORY_BYTES = 32L * 1024 * 1024;
+    // On disk a JPEG thumbnail takes 2 to 8 KB: this holds at least 60000 of them, fewer with transparency
+    private static final long DISK_BYTES = 512L * 1024 * 1024;
+    private static final List<String> EXTENSIONS = Arrays.asList("jpg", "jpeg", "png", "gif", "bmp");
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThumbnailGenerator instance = new ThumbnailGenerator();
+
+    private final ThumbnailCache diskCache = new ThumbnailCache(
+            Paths.get(System.getProperty("user.home"), ".lab5", "thumbnails"), DISK_BYTES);
+    // Decoding is mostly CPU bound: more threads than cores would only queue up in the decoder
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "thumbnail-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Used from the JavaFX thread only, least recently shown first
+    private final Map<File, Image> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private long loadedBytes;
+
+    private ThumbnailGenerator() {
+        executor.execute(ThumbnailGenerator::deleteUncompressedCache);
+    }
+
+    public static ThumbnailGenerator getInstance() {
+        return instance;
+    }
+
+    /**
+     * Lists the image files of a directory, sorted by name. Does not decode anything, but may take
+     * a while for large directories, so it should not run on the JavaFX thread.
+     */
+    public static List<File> listImages(File directory) {
+        File[] files = directory.listFiles(file -> file.isFile() && isImage(file));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<File> images = new ArrayList<>(Arrays.asList(files));
+        images.sort((a, b) -> a.getName().compareToIgnoreCase(b.getName()));
+        return images;
+    }
+
+    private static boolean isImage(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns the preview of the file if it is in memory, or null. Must be called on the JavaFX thread.
+     */
+    public Image getLoaded(File file) {
+        return loaded.get(file);
+    }
+
+    /**
+     * Generates the preview of the file in the background. Must be called on the JavaFX thread.
+     * Cancelling the returned future drops the request if it has not started yet.
+     *
+     * @param done run on the JavaFX thread with the preview, or null if the file cannot be read
+     */
+    public Future<?> request(File file, Consumer<Image> done) {
+        return executor.submit(() -> {
+            Image thumbnail = generate(file);
+            Platform.runLater(() -> {
+                if (thumbnail != null) {
+                    keep(file, thumbnail);
+                }
+                done.accept(thumbnail);
+            });
+        });
+    }
+
+    private void keep(File file, Image thumbnail) {
+        Image replaced = loaded.put(file, thumbnail);
+        loadedBytes += bytes(thumbnail) - (replaced != null ? bytes(replaced) : 0);
+        Iterator<Image> eldest = loaded.values().iterator();
+        while (loadedBytes > MEMORY_BYTES && eldest.hasNext()) {
+            loadedBytes -= bytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long bytes(Image image) {
+        return 4L * (long) image.getWidth() * (long) image.getHeight();
+    }
+
+    /**
+     * Deletes the cache of uncompressed thumbnails written by earlier versions, which nothing evicts any more.
+     */
+    private static void deleteUncompressedCache() {
+        Path directory = Paths.get(System.getProperty("user.home"), ".lab5", "thumbnail-cache");
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> entries = Files.list(directory)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                Files.deleteIfExists(entry);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            System.out.println("Cannot delete the old thumbnail cache: " + e.getMessage());
+        }
+    }
+
+    private Image generate(File file) {
+        long start = Metrics.now();
+        try {
+            SharedPixelBuffer cached = diskCache.get(file);
+            if (cached != null) {
+                return cached.getFxImage();
+            }
+            BufferedImage source = null;
+            try {
+                source = ExifThumbnail.read(file);
+            } catch (IOException e) {
+                // No usable embedded preview: decode the picture instead
+            }
+            if (source == null || Math.max(source.getWidth(), source.getHeight()) < SIZE * 3 / 4) {
+                source = ImageDecoder.readSubsampled(file, SIZE, SIZE, null);
+            }
+            if (source == null) {
+                return null;
+            }
+            SharedPixelBuffer thumbnail = ImageConverter.scaleToFit(source, SIZE);
+            diskCache.put(file, thumbnail);
+            return thumbnail.getFxImage();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Cannot generate thumbnail of " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            Metrics.THUMBNAIL.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.etslabs.Models;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.application.Platform;
+import javafx.geometry.Rectangle2D;
+
+/**
+ * Decodes the tiles of a {@link TiledImage} on a background thread ahead of the display: first
+ * the tiles of the visible region that are missing, then those of the region the view is expected
+ * to show next, e.g. further along a pan. Only the latest request matters: a newer one makes the
+ * previous one stop after its current tile.
+ */
+public class TilePrefetcher {
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tile-prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Replaces the previous request of this prefetcher.
+     *
+     * @param level pyramid level to decode, see {@link TiledImage#levelForScale}
+     * @param visible full-resolution region shown now
+     * @param predicted region to decode once the visible one is complete, may be null
+     * @param visibleLoaded run on the JavaFX thread each time a visible tile has been decoded
+     */
+    public void request(TiledImage image, int level, Rectangle2D visible, Rectangle2D predicted,
+                        Runnable visibleLoaded) {
+        long request = generation.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                image.prefetch(visible, level, () -> generation.get() != request,
+                        () -> Platform.runLater(visibleLoaded));
+                if (predicted != null) {
+                    image.prefetch(predicted, level, () -> generation.get() != request, null);
+                }
+            } catch (IOException e) {
+                // The image was closed, e.g. evicted from the workspace: nothing left to show
+                System.out.println("Tile prefetch stopped: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Drops the current request.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+}
@@ -0,0 +1,379 @@
+package com.etslabs.Models;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+
+import com.etslabs.Converter.ImageConverter;
+import com.etslabs.Converter.SharedPixelBuffer;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+
+/**
+ * Multi-resolution, tiled view of an image file that is too large to be decoded at once.
+ * Level 0 is the full resolution, each following level halves both dimensions.
+ * Tiles are decoded on demand through {@link ImageReader} source regions and kept
+ * in a byte-bounded LRU cache. Decoding holds the reader, not the cache: a thread rendering
+ * from cached tiles never waits for another thread's decode.
+ */
+public class TiledImage implements AutoCloseable {
+    public static final int TILE_SIZE = 512;
+    public static final long DEFAULT_CACHE_BYTES = 128L * 1024 * 1024;
+    private static final int OVERVIEW_MAX_DIMENSION = 2048;
+
+    private final File file;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int levelCount;
+    private final Image overview;
+
+    private final long cacheBudget;
+    private long cachedBytes;
+    private final LinkedHashMap<TileKey, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    // Guards the reader, which decodes one tile at a time; the cache is guarded by this
+    private final Object readerLock = new Object();
+    private boolean closed;
+
+    public TiledImage(File file) throws IOException {
+        this(file, DEFAULT_CACHE_BYTES, null);
+    }
+
+    /**
+     * @param file the image file
+     * @param cacheBudget maximum number of bytes of decoded tiles kept in memory
+     * @param readerHook if not null, receives the reader before the overview is decoded
+     */
+    public TiledImage(File file, long cacheBudget, Consumer<ImageReader> readerHook) throws IOException {
+        this.file = file;
+        this.cacheBudget = cacheBudget;
+        this.reader = ImageDecoder.open(file);
+        try {
+            this.width = reader.getWidth(0);
+            this.height = reader.getHeight(0);
+
+            int levels = 1;
+            while (Math.max(width, height) >> (levels - 1) > TILE_SIZE) {
+                levels++;
+            }
+            this.levelCount = levels;
+            if (readerHook != null) {
+                readerHook.accept(reader);
+            }
+            this.overview = ImageConverter.bufferedImageToWritableImage(decodeOverview());
+            reader.removeAllIIOReadProgressListeners();
+            reader.removeAllIIOReadUpdateListeners();
+        } catch (IOException | RuntimeException e) {
+            ImageDecoder.close(reader);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true when an image of the given size should go through the tiled path
+     * instead of being decoded as a single raster.
+     */
+    public static boolean shouldTile(int width, int height) {
+        return (long) width * height > 50_000_000L;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * Downscaled image of the whole picture, small enough to be displayed as is.
+     */
+    public Image getOverview() {
+        return overview;
+    }
+
+    /**
+     * Picks the coarsest level whose resolution still covers the requested scale,
+     * where scale is the number of screen pixels per full-resolution image pixel.
+     */
+    public int levelForScale(double scale) {
+        int level = 0;
+        while (level + 1 < levelCount && scale * (1 << (level + 1)) <= 1.0) {
+            level++;
+        }
+        return level;
+    }
+
+    public BufferedImage getTile(int level, int column, int row) throws IOException {
+        TileKey key = new TileKey(level, column, row);
+        BufferedImage tile = getCachedTile(key);
+        if (tile != null) {
+            return tile;
+        }
+        synchronized (readerLock) {
+            // Another thread may have decoded it while this one waited for the reader
+            tile = getCachedTile(key);
+            if (tile != null) {
+                return tile;
+            }
+            if (closed) {
+                throw new IOException("Tiled image closed: " + file);
+            }
+            tile = decodeTile(level, column, row);
+        }
+        synchronized (this) {
+            tiles.put(key, tile);
+            cachedBytes += sizeOf(tile);
+            evict();
+        }
+        return tile;
+    }
+
+    /**
+     * Returns the tile if it is cached, without decoding it.
+     */
+    public BufferedImage getCachedTile(int level, int column, int row) {
+        return getCachedTile(new TileKey(level, column, row));
+    }
+
+    private synchronized BufferedImage getCachedTile(TileKey key) {
+        return tiles.get(key);
+    }
+
+    /**
+     * Renders the given full-resolution region at the requested output size, using only the
+     * tiles of the matching level that intersect the region. Decodes the missing tiles.
+     */
+    public Image renderRegion(Rectangle2D region, int outputWidth, int outputHeight) throws IOException {
+        return render(region, outputWidth, outputHeight, false);
+    }
+
+    /**
+     * Like {@link #renderRegion}, but never decodes: tiles missing at the matching level are drawn
+     * from the closest coarser level that is cached, and left transparent if there is none.
+     */
+    public Image renderCachedRegion(Rectangle2D region, int outputWidth, int outputHeight) {
+        try {
+            return render(region, outputWidth, outputHeight, true);
+        } catch (IOException e) {
+            // Cannot happen, nothing is decoded
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * True when every tile needed to render the region at the level is cached.
+     */
+    public boolean isCached(Rectangle2D region, int level) {
+        int[] range = tileRange(region, level);
+        for (int row = range[1]; row <= range[3]; row++) {
+            for (int column = range[0]; column <= range[2]; column++) {
+                if (getCachedTile(level, column, row) == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the tiles of the region at the level that are not cached yet, nearest to the center
+     * of the region first, until done or {@code cancelled} returns true.
+     *
+     * @param decoded run after each tile actually decoded, may be null
+     */
+    public void prefetch(Rectangle2D region, int level, BooleanSupplier cancelled, Runnable decoded)
+            throws IOException {
+        int[] range = tileRange(region, level);
+        List<int[]> missing = new ArrayList<>();
+        for (int row = range[1]; row <= range[3]; row++) {
+            for (int column = range[0]; column <= range[2]; column++) {
+                if (getCachedTile(level, column, row) == null) {
+                    missing.add(new int[] { column, row });
+                }
+            }
+        }
+        double centerColumn = (range[0] + range[2]) / 2.0;
+        double centerRow = (range[1] + range[3]) / 2.0;
+        missing.sort(Comparator.comparingDouble(tile -> Math.hypot(tile[0] - centerColumn, tile[1] - centerRow)));
+        for (int[] tile : missing) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            getTile(level, tile[0], tile[1]);
+            if (decoded != null) {
+                decoded.run();
+            }
+        }
+    }
+
+    private Image render(Rectangle2D region, int outputWidth, int outputHeight, boolean cachedOnly)
+            throws IOException {
+        SharedPixelBuffer output = SharedPixelBuffer.allocate(outputWidth, outputHeight);
+        Graphics2D g = output.getBufferedImage().createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            double scale = outputWidth / region.getWidth();
+            int level = levelForScale(scale);
+            int[] range = tileRange(region, level);
+            for (int row = range[1]; row <= range[3]; row++) {
+                for (int column = range[0]; column <= range[2]; column++) {
+                    if (!cachedOnly) {
+                        drawTile(g, region, scale, level, column, row, getTile(level, column, row));
+                        continue;
+                    }
+                    BufferedImage tile = getCachedTile(level, column, row);
+                    if (tile != null) {
+                        drawTile(g, region, scale, level, column, row, tile);
+                    } else {
+                        drawCoarserTile(g, region, scale, level, column, row);
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return output.getFxImage();
+    }
+
+    /**
+     * Fills the area of a missing tile with the cached tile of the closest coarser level covering it.
+     */
+    private void drawCoarserTile(Graphics2D g, Rectangle2D region, double scale, int level, int column, int row) {
+        for (int coarser = level + 1; coarser < levelCount; coarser++) {
+            int shift = coarser - level;
+            BufferedImage tile = getCachedTile(coarser, column >> shift, row >> shift);
+            if (tile != null) {
+                int levelTile = TILE_SIZE << level;
+                Shape clip = g.getClip();
+                g.clipRect((int) Math.floor((column * levelTile - region.getMinX()) * scale),
+                        (int) Math.floor((row * levelTile - region.getMinY()) * scale),
+                        (int) Math.ceil(levelTile * scale) + 1, (int) Math.ceil(levelTile * scale) + 1);
+                drawTile(g, region, scale, coarser, column >> shift, row >> shift, tile);
+                g.setClip(clip);
+                return;
+            }
+        }
+    }
+
+    private static void drawTile(Graphics2D g, Rectangle2D region, double scale, int level, int column, int row,
+                                 BufferedImage tile) {
+        int levelTile = TILE_SIZE << level;
+        double x = (column * levelTile - region.getMinX()) * scale;
+        double y = (row * levelTile - region.getMinY()) * scale;
+        double w = tile.getWidth() * (1 << level) * scale;
+        double h = tile.getHeight() * (1 << level) * scale;
+        g.drawImage(tile, (int) Math.floor(x), (int) Math.floor(y),
+                (int) Math.ceil(x + w) - (int) Math.floor(x),
+                (int) Math.ceil(y + h) - (int) Math.floor(y), null);
+    }
+
+    /**
+     * First column, first row, last column and last row of the tiles of the level intersecting the region.
+     */
+    private int[] tileRange(Rectangle2D region, int level) {
+        int levelTile = TILE_SIZE << level;
+        return new int[] {
+                Math.max(0, (int) (region.getMinX() / levelTile)),
+                Math.max(0, (int) (region.getMinY() / levelTile)),
+                Math.min((width - 1) / levelTile, (int) ((region.getMaxX() - 1) / levelTile)),
+                Math.min((height - 1) / levelTile, (int) ((region.getMaxY() - 1) / levelTile))
+        };
+    }
+
+    @Override
+    public void close() {
+        synchronized (readerLock) {
+            closed = true;
+            synchronized (this) {
+                tiles.clear();
+                cachedBytes = 0;
+            }
+            ImageDecoder.close(reader);
+        }
+    }
+
+    private BufferedImage decodeTile(int level, int column, int row) throws IOException {
+        int levelTile = TILE_SIZE << level;
+        int x = column * levelTile;
+        int y = row * levelTile;
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y, Math.min(levelTile, width - x), Math.min(levelTile, height - y)));
+        param.setSourceSubsampling(1 << level, 1 << level, 0, 0);
+        return reader.read(0, param);
+    }
+
+    private BufferedImage decodeOverview() throws IOException {
+        int subsampling = 1;
+        while (Math.max(width, height) / subsampling > OVERVIEW_MAX_DIMENSION) {
+            subsampling++;
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<TileKey, BufferedImage>> it = tiles.entrySet().iterator();
+        while (cachedBytes > cacheBudget && it.hasNext()) {
+            cachedBytes -= sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private static final class TileKey {
+        private final int level;
+        private final int column;
+        private final int row;
+
+        TileKey(int level, int column, int row) {
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return level == other.level && column == other.column && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return (level * 31 + column) * 31 + row;
+        }
+    }
+}
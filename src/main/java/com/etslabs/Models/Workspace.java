@@ -0,0 +1,189 @@
+package com.etslabs.Models;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Images opened in the application, in the order they were opened, and which one each model shows.
+ * Decoded images are kept in an {@link ImageCache} so that going back to a recently viewed image
+ * is instant, and the images next to the one being viewed are decoded ahead of time.
+ * Used from the JavaFX thread only.
+ */
+public class Workspace {
+    private final List<File> files = new ArrayList<>();
+    private final Map<ImageModel, File> bindings = new IdentityHashMap<>();
+    private final ImageCache cache;
+    private final ImageLoader prefetchLoader = new ImageLoader();
+    private final Deque<File> prefetchQueue = new ArrayDeque<>();
+    private ImageLoader.Decoder prefetchDecoder;
+
+    public Workspace(long maxBytes) {
+        this.cache = new ImageCache(maxBytes, this::isShown);
+    }
+
+    /**
+     * Adds the file to the workspace if it is not open yet.
+     *
+     * @return the position of the file in the workspace
+     */
+    public int open(File file) {
+        int index = files.indexOf(file);
+        if (index < 0) {
+            files.add(file);
+            index = files.size() - 1;
+        }
+        return index;
+    }
+
+    /**
+     * Removes the file from the workspace and drops its cached image. Models still bound to it keep
+     * showing it until they are bound to another image.
+     */
+    public void close(File file) {
+        files.remove(file);
+        prefetchQueue.remove(file);
+        cache.remove(file);
+    }
+
+    public List<File> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Returns the file after the given one, wrapping around at the end, or null if none is open.
+     */
+    public File next(File file) {
+        return neighbour(file, 1);
+    }
+
+    public File previous(File file) {
+        return neighbour(file, -1);
+    }
+
+    private File neighbour(File file, int step) {
+        if (files.isEmpty()) {
+            return null;
+        }
+        int index = files.indexOf(file);
+        if (index < 0) {
+            return files.get(0);
+        }
+        return files.get(Math.floorMod(index + step, files.size()));
+    }
+
+    /**
+     * Returns the cached decoded image of the file, or null if it has to be decoded.
+     */
+    public DecodedImage getCached(File file) {
+        return cache.get(file);
+    }
+
+    /**
+     * Caches a better decode of an open file, such as its full resolution. Models bound to the file
+     * that show its cached version or a preview of it switch to the new one.
+     */
+    public void update(File file, DecodedImage decoded) {
+        if (!files.contains(file)) {
+            decoded.discard();
+            return;
+        }
+        DecodedImage previous = cache.get(file);
+        for (Map.Entry<ImageModel, File> binding : bindings.entrySet()) {
+            ImageModel model = binding.getKey();
+            if (binding.getValue().equals(file)
+                    && (model.isPreview() || previous != null && previous.isImage(model.getImage()))) {
+                model.publish(decoded);
+            }
+        }
+        cache.put(file, decoded);
+    }
+
+    /**
+     * Shows the decoded image of the file in the model and caches it.
+     */
+    public void bind(ImageModel model, File file, DecodedImage decoded) {
+        open(file);
+        bindings.put(model, file);
+        model.publish(decoded);
+        cache.put(file, decoded);
+    }
+
+    /**
+     * Empties the model. Its image may then be evicted from the cache.
+     */
+    public void unbind(ImageModel model) {
+        bindings.remove(model);
+        model.setImage(null);
+        cache.trim();
+    }
+
+    /**
+     * Returns the file the model was last bound to, or null.
+     */
+    public File getFile(ImageModel model) {
+        return bindings.get(model);
+    }
+
+    private boolean isShown(DecodedImage decoded) {
+        for (ImageModel model : bindings.keySet()) {
+            if (decoded.isImage(model.getImage())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the next and previous images of the file in the background, one at a time, unless
+     * they are cached. Replaces the prefetches requested before.
+     */
+    public void prefetchAround(File file, ImageLoader.Decoder decoder) {
+        cancelPrefetch();
+        prefetchDecoder = decoder;
+        for (File neighbour : new File[] { next(file), previous(file) }) {
+            if (neighbour != null && !neighbour.equals(file) && !cache.contains(neighbour)
+                    && !prefetchQueue.contains(neighbour)) {
+                prefetchQueue.add(neighbour);
+            }
+        }
+        prefetchNext();
+    }
+
+    /**
+     * Stops prefetching, e.g. so that a foreground load gets the disk and the CPU.
+     */
+    public void cancelPrefetch() {
+        prefetchQueue.clear();
+        prefetchLoader.cancel();
+    }
+
+    private void prefetchNext() {
+        File file = prefetchQueue.poll();
+        if (file == null) {
+            return;
+        }
+        prefetchLoader.load(file, prefetchDecoder, new ImageLoader.LoadListener() {
+            @Override
+            public void loaded(DecodedImage decoded) {
+                if (files.contains(file) && !cache.contains(file)) {
+                    cache.put(file, decoded);
+                } else {
+                    decoded.discard();
+                }
+                prefetchNext();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                System.out.println("Failed to prefetch " + file.getName() + ": " + e.getMessage());
+                prefetchNext();
+            }
+        });
+    }
+}
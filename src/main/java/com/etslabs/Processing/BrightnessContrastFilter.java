@@ -0,0 +1,41 @@
+package com.etslabs.Processing;
+
+/**
+ * Shifts the brightness and stretches the contrast around mid-gray.
+ */
+public class BrightnessContrastFilter extends LookupFilter {
+    static final String NAME = "brightness-contrast";
+
+    private final double brightness;
+    private final double contrast;
+
+    /**
+     * @param brightness from -1 (black) to 1 (white), 0 leaves the image unchanged
+     * @param contrast from -1 (flat gray) to 1 (maximum), 0 leaves the image unchanged
+     */
+    public BrightnessContrastFilter(double brightness, double contrast) {
+        this.brightness = Math.max(-1, Math.min(1, brightness));
+        this.contrast = Math.max(-1, Math.min(0.99, contrast));
+    }
+
+    @Override
+    protected double map(int value) {
+        double factor = (1 + contrast) / (1 - contrast);
+        return (value - 127.5) * factor + 127.5 + brightness * 255;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double[] getParameters() {
+        return new double[] { brightness, contrast };
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Brightness %+.0f%%, contrast %+.0f%%", brightness * 100, contrast * 100);
+    }
+}
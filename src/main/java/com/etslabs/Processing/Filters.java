@@ -0,0 +1,31 @@
+package com.etslabs.Processing;
+
+import com.etslabs.Interfaces.PixelFilter;
+
+/**
+ * Recreates filters from their name and parameters, as returned by {@link PixelFilter#getName()}
+ * and {@link PixelFilter#getParameters()}.
+ */
+public final class Filters {
+    private Filters() {}
+
+    public static PixelFilter create(String name, double[] parameters) {
+        switch (name) {
+            case BrightnessContrastFilter.NAME:
+                return new BrightnessContrastFilter(parameters[0], parameters[1]);
+            case LevelsFilter.NAME:
+                return new LevelsFilter((int) parameters[0], (int) parameters[1], parameters[2],
+                        (int) parameters[3], (int) parameters[4]);
+            case GrayscaleFilter.NAME:
+                return new GrayscaleFilter();
+            case GaussianBlurFilter.NAME:
+                return new GaussianBlurFilter(parameters[0]);
+            case SharpenFilter.NAME:
+                return new SharpenFilter(parameters[0], parameters[1]);
+            case ResizeFilter.NAME:
+                return new ResizeFilter(parameters[0]);
+            default:
+                throw new IllegalArgumentException("Unknown filter " + name);
+        }
+    }
+}
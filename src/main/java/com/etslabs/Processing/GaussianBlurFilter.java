@@ -0,0 +1,49 @@
+package com.etslabs.Processing;
+
+import com.etslabs.Interfaces.PixelFilter;
+
+/**
+ * Gaussian blur, as a horizontal then a vertical pass.
+ */
+public class GaussianBlurFilter implements PixelFilter {
+    static final String NAME = "gaussian-blur";
+
+    private final double sigma;
+
+    /**
+     * @param sigma standard deviation of the Gaussian, in pixels
+     */
+    public GaussianBlurFilter(double sigma) {
+        if (sigma <= 0) {
+            throw new IllegalArgumentException("Sigma must be positive: " + sigma);
+        }
+        this.sigma = sigma;
+    }
+
+    @Override
+    public void apply(PixelEngine engine, int[] src, int width, int height, int[] dst) {
+        int[] rows = new int[width * height];
+        Taps.gaussian(width, sigma).horizontal(engine, src, width, height, rows);
+        Taps.gaussian(height, sigma).vertical(engine, rows, width, height, dst);
+    }
+
+    @Override
+    public int getMargin() {
+        return Math.max(1, (int) Math.ceil(3 * sigma));
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double[] getParameters() {
+        return new double[] { sigma };
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Gaussian blur %.1f px", sigma);
+    }
+}
@@ -0,0 +1,39 @@
+package com.etslabs.Processing;
+
+import com.etslabs.Interfaces.PixelFilter;
+
+/**
+ * Replaces each color by its luma (BT.601 weights). Works on premultiplied values directly, since
+ * the luma of premultiplied channels is the premultiplied luma.
+ */
+public class GrayscaleFilter implements PixelFilter {
+    static final String NAME = "grayscale";
+
+    @Override
+    public void apply(PixelEngine engine, int[] src, int width, int height, int[] dst) {
+        engine.forEachTile(width, height, (x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                    int p = src[i];
+                    int luma = ((p >> 16 & 0xff) * 77 + (p >> 8 & 0xff) * 150 + (p & 0xff) * 29 + 128) >> 8;
+                    dst[i] = p & 0xff000000 | luma << 16 | luma << 8 | luma;
+                }
+            }
+        });
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double[] getParameters() {
+        return new double[0];
+    }
+
+    @Override
+    public String getDescription() {
+        return "Grayscale";
+    }
+}
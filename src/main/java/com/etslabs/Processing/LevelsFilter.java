@@ -0,0 +1,47 @@
+package com.etslabs.Processing;
+
+/**
+ * Maps the input range {@code [inputBlack, inputWhite]} to {@code [outputBlack, outputWhite]},
+ * with a gamma correction of the midtones.
+ */
+public class LevelsFilter extends LookupFilter {
+    static final String NAME = "levels";
+
+    private final int inputBlack;
+    private final int inputWhite;
+    private final double gamma;
+    private final int outputBlack;
+    private final int outputWhite;
+
+    public LevelsFilter(int inputBlack, int inputWhite, double gamma, int outputBlack, int outputWhite) {
+        if (inputWhite <= inputBlack || gamma <= 0) {
+            throw new IllegalArgumentException("Invalid levels " + inputBlack + "-" + inputWhite + ", gamma " + gamma);
+        }
+        this.inputBlack = inputBlack;
+        this.inputWhite = inputWhite;
+        this.gamma = gamma;
+        this.outputBlack = outputBlack;
+        this.outputWhite = outputWhite;
+    }
+
+    @Override
+    protected double map(int value) {
+        double normalized = Math.max(0, Math.min(1, (value - inputBlack) / (double) (inputWhite - inputBlack)));
+        return outputBlack + (outputWhite - outputBlack) * Math.pow(normalized, 1 / gamma);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double[] getParameters() {
+        return new double[] { inputBlack, inputWhite, gamma, outputBlack, outputWhite };
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Levels %d-%d, gamma %.2f", inputBlack, inputWhite, gamma);
+    }
+}
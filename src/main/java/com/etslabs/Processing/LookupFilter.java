@@ -0,0 +1,51 @@
+package com.etslabs.Processing;
+
+import com.etslabs.Interfaces.PixelFilter;
+
+/**
+ * Filter applying the same curve to the red, green and blue channels. The curve is tabulated once;
+ * pixels are unpremultiplied only when they are partly transparent.
+ */
+public abstract class LookupFilter implements PixelFilter {
+    private int[] table;
+
+    /**
+     * Value of the curve for a channel value from 0 to 255, clamped afterwards.
+     */
+    protected abstract double map(int value);
+
+    private int[] table() {
+        if (table == null) {
+            int[] values = new int[256];
+            for (int i = 0; i < 256; i++) {
+                values[i] = (int) Math.max(0, Math.min(255, Math.round(map(i))));
+            }
+            table = values;
+        }
+        return table;
+    }
+
+    @Override
+    public void apply(PixelEngine engine, int[] src, int width, int height, int[] dst) {
+        int[] lut = table();
+        engine.forEachTile(width, height, (x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                    int p = src[i];
+                    int a = p >>> 24;
+                    if (a == 255) {
+                        dst[i] = p & 0xff000000 | lut[p >> 16 & 0xff] << 16 | lut[p >> 8 & 0xff] << 8 | lut[p & 0xff];
+                    } else if (a == 0) {
+                        dst[i] = 0;
+                    } else {
+                        int half = a >> 1;
+                        int r = lut[Math.min(255, ((p >> 16 & 0xff) * 255 + half) / a)];
+                        int g = lut[Math.min(255, ((p >> 8 & 0xff) * 255 + half) / a)];
+                        int b = lut[Math.min(255, ((p & 0xff) * 255 + half) / a)];
+                        dst[i] = a << 24 | (r * a + 127) / 255 << 16 | (g * a + 127) / 255 << 8 | (b * a + 127) / 255;
+                    }
+                }
+            }
+        });
+    }
+}
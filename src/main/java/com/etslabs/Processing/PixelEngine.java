@@ -0,0 +1,117 @@
+package com.etslabs.Processing;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import com.etslabs.Interfaces.PixelFilter;
+import com.etslabs.Metrics.FilterEvent;
+import com.etslabs.Metrics.Metrics;
+
+/**
+ * Runs pixel operations on a fork-join pool. A raster is split into tiles of about
+ * {@value #TILE_SIZE}x{@value #TILE_SIZE} pixels, small enough for the caches and numerous enough
+ * for work stealing to balance the cores; each tile is handed to a {@link TileKernel} that works
+ * straight on the {@code int[]} premultiplied ARGB pixels, without allocating.
+ */
+public class PixelEngine {
+    static final int TILE_SIZE = 256;
+
+    private static final PixelEngine instance = new PixelEngine(Runtime.getRuntime().availableProcessors());
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Computes the pixels of one rectangle, from {@code (x0, y0)} included to {@code (x1, y1)} excluded,
+     * of the destination raster. Called concurrently for disjoint rectangles.
+     */
+    public interface TileKernel {
+        void apply(int x0, int y0, int x1, int y1);
+    }
+
+    public PixelEngine(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("pixel-engine-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    public static PixelEngine getInstance() {
+        return instance;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Runs the kernel over every tile of a {@code width x height} raster and waits for all of them.
+     */
+    public void forEachTile(int width, int height, TileKernel kernel) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        pool.invoke(new TileTask(kernel, 0, 0, width, height));
+    }
+
+    /**
+     * Runs a task on the pool without waiting for it, e.g. a whole filter kept off the JavaFX thread.
+     * Its calls to {@link #apply} and {@link #forEachTile} are then split across the pool as usual.
+     */
+    public void submit(Runnable task) {
+        pool.execute(task);
+    }
+
+    /**
+     * Runs the filter over a premultiplied ARGB raster, writing the result into {@code dst}.
+     */
+    public void apply(PixelFilter filter, int[] src, int width, int height, int[] dst) {
+        long start = Metrics.now();
+        FilterEvent event = new FilterEvent();
+        event.begin();
+        filter.apply(this, src, width, height, dst);
+        event.end();
+        if (event.shouldCommit()) {
+            event.filter = filter.getDescription();
+            event.width = width;
+            event.height = height;
+            event.parallelism = getParallelism();
+            event.commit();
+        }
+        Metrics.FILTER.recordSince(start);
+    }
+
+    /**
+     * Halves its rectangle along the longer side, on a tile boundary, until it is a single tile.
+     */
+    // Serializable through RecursiveAction only; tasks never leave the pool
+    @SuppressWarnings("serial")
+    private static final class TileTask extends RecursiveAction {
+        private final TileKernel kernel;
+        private final int x0, y0, x1, y1;
+
+        TileTask(TileKernel kernel, int x0, int y0, int x1, int y1) {
+            this.kernel = kernel;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            int width = x1 - x0;
+            int height = y1 - y0;
+            if (width <= TILE_SIZE && height <= TILE_SIZE) {
+                kernel.apply(x0, y0, x1, y1);
+            } else if (width >= height) {
+                int split = x0 + Math.max(1, width / 2 / TILE_SIZE) * TILE_SIZE;
+                invokeAll(new TileTask(kernel, x0, y0, split, y1), new TileTask(kernel, split, y0, x1, y1));
+            } else {
+                int split = y0 + Math.max(1, height / 2 / TILE_SIZE) * TILE_SIZE;
+                invokeAll(new TileTask(kernel, x0, y0, x1, split), new TileTask(kernel, x0, split, x1, y1));
+            }
+        }
+    }
+}
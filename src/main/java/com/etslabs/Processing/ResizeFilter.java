@@ -0,0 +1,53 @@
+package com.etslabs.Processing;
+
+import com.etslabs.Interfaces.PixelFilter;
+
+/**
+ * Scales the image by a factor, filtering the rows then the columns (see {@link Taps#resample}).
+ */
+public class ResizeFilter implements PixelFilter {
+    static final String NAME = "resize";
+
+    private final double scale;
+
+    public ResizeFilter(double scale) {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        this.scale = scale;
+    }
+
+    @Override
+    public int getOutputWidth(int width, int height) {
+        return Math.max(1, (int) Math.round(width * scale));
+    }
+
+    @Override
+    public int getOutputHeight(int width, int height) {
+        return Math.max(1, (int) Math.round(height * scale));
+    }
+
+    @Override
+    public void apply(PixelEngine engine, int[] src, int width, int height, int[] dst) {
+        int outputWidth = getOutputWidth(width, height);
+        int outputHeight = getOutputHeight(width, height);
+        int[] rows = new int[outputWidth * height];
+        Taps.resample(width, outputWidth).horizontal(engine, src, width, height, rows);
+        Taps.resample(height, outputHeight).vertical(engine, rows, outputWidth, height, dst);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double[] getParameters() {
+        return new double[] { scale };
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Resize %.0f%%", scale * 100);
+    }
+}
@@ -0,0 +1,66 @@
+package com.etslabs.Processing;
+
+import com.etslabs.Interfaces.PixelFilter;
+
+/**
+ * Unsharp mask: adds back {@code amount} times the difference between the image and its blur.
+ */
+public class SharpenFilter implements PixelFilter {
+    static final String NAME = "sharpen";
+
+    private final double amount;
+    private final double sigma;
+
+    public SharpenFilter(double amount, double sigma) {
+        this.amount = amount;
+        this.sigma = sigma;
+    }
+
+    @Override
+    public void apply(PixelEngine engine, int[] src, int width, int height, int[] dst) {
+        // The blur goes to dst, which is then overwritten tile by tile with the sharpened pixels
+        new GaussianBlurFilter(sigma).apply(engine, src, width, height, dst);
+        int gain = (int) Math.round(amount * 256);
+        engine.forEachTile(width, height, (x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                    int p = src[i];
+                    int blurred = dst[i];
+                    int a = p >>> 24;
+                    int r = sharpen(p >> 16 & 0xff, blurred >> 16 & 0xff, gain, a);
+                    int g = sharpen(p >> 8 & 0xff, blurred >> 8 & 0xff, gain, a);
+                    int b = sharpen(p & 0xff, blurred & 0xff, gain, a);
+                    dst[i] = a << 24 | r << 16 | g << 8 | b;
+                }
+            }
+        });
+    }
+
+    /**
+     * Premultiplied channels can't exceed alpha.
+     */
+    private static int sharpen(int value, int blurred, int gain, int alpha) {
+        int sharpened = value + ((value - blurred) * gain >> 8);
+        return sharpened < 0 ? 0 : Math.min(sharpened, alpha);
+    }
+
+    @Override
+    public int getMargin() {
+        return Math.max(1, (int) Math.ceil(3 * sigma));
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double[] getParameters() {
+        return new double[] { amount, sigma };
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Sharpen %.0f%%", amount * 100);
+    }
+}
@@ -0,0 +1,151 @@
+package com.etslabs.Processing;
+
+/**
+ * Weights of a one-dimensional separable filter: output sample {@code i} is the weighted sum of
+ * {@code count[i]} input samples starting at {@code first[i]}. Weights are 16-bit fixed point and
+ * sum to exactly {@code 1 << 16} for each output sample, so premultiplied pixels stay valid.
+ */
+final class Taps {
+    static final int SHIFT = 16;
+    private static final int ONE = 1 << SHIFT;
+    private static final int ROUND = 1 << (SHIFT - 1);
+
+    final int[] first;
+    final int[] count;
+    final int[] weights;
+    final int stride;
+
+    private Taps(int size, int stride) {
+        this.first = new int[size];
+        this.count = new int[size];
+        this.weights = new int[size * stride];
+        this.stride = stride;
+    }
+
+    /**
+     * Gaussian kernel over {@code size} samples, truncated at three sigmas and renormalized at the edges.
+     */
+    static Taps gaussian(int size, double sigma) {
+        int radius = Math.max(1, (int) Math.ceil(3 * sigma));
+        double[] kernel = new double[2 * radius + 1];
+        for (int k = -radius; k <= radius; k++) {
+            kernel[k + radius] = Math.exp(-k * k / (2 * sigma * sigma));
+        }
+        Taps taps = new Taps(size, kernel.length);
+        double[] row = new double[kernel.length];
+        for (int i = 0; i < size; i++) {
+            int from = Math.max(0, i - radius);
+            int to = Math.min(size - 1, i + radius);
+            for (int j = from; j <= to; j++) {
+                row[j - from] = kernel[j - i + radius];
+            }
+            taps.set(i, from, to - from + 1, row);
+        }
+        return taps;
+    }
+
+    /**
+     * Resampling from {@code sourceSize} to {@code targetSize} samples with a triangle filter, widened
+     * when shrinking so that every source sample contributes (no aliasing).
+     */
+    static Taps resample(int sourceSize, int targetSize) {
+        double scale = (double) targetSize / sourceSize;
+        double support = scale < 1 ? 1 / scale : 1;
+        Taps taps = new Taps(targetSize, (int) Math.ceil(2 * support) + 2);
+        double[] row = new double[taps.stride];
+        for (int i = 0; i < targetSize; i++) {
+            double center = (i + 0.5) / scale - 0.5;
+            int from = Math.max(0, (int) Math.ceil(center - support));
+            int to = Math.min(sourceSize - 1, (int) Math.floor(center + support));
+            if (to < from) {
+                // Upscaling past the last sample: repeat it
+                from = to = Math.max(0, Math.min(sourceSize - 1, (int) Math.round(center)));
+            }
+            for (int j = from; j <= to; j++) {
+                row[j - from] = Math.max(0, 1 - Math.abs(j - center) / support);
+            }
+            taps.set(i, from, to - from + 1, row);
+        }
+        return taps;
+    }
+
+    private void set(int index, int from, int length, double[] row) {
+        double sum = 0;
+        for (int k = 0; k < length; k++) {
+            sum += row[k];
+        }
+        int offset = index * stride;
+        int total = 0;
+        int largest = 0;
+        for (int k = 0; k < length; k++) {
+            int weight = sum > 0 ? (int) Math.round(row[k] / sum * ONE) : (k == 0 ? ONE : 0);
+            weights[offset + k] = weight;
+            total += weight;
+            if (weight > weights[offset + largest]) {
+                largest = k;
+            }
+        }
+        // Rounding leftovers go to the largest weight
+        weights[offset + largest] += ONE - total;
+        first[index] = from;
+        count[index] = length;
+    }
+
+    /**
+     * Filters the rows of {@code src} ({@code srcWidth x height}) into {@code dst} ({@code count.length x height}).
+     */
+    void horizontal(PixelEngine engine, int[] src, int srcWidth, int height, int[] dst) {
+        int dstWidth = first.length;
+        engine.forEachTile(dstWidth, height, (x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int srcRow = y * srcWidth;
+                int dstRow = y * dstWidth;
+                for (int x = x0; x < x1; x++) {
+                    int a = ROUND, r = ROUND, g = ROUND, b = ROUND;
+                    int offset = x * stride;
+                    int from = srcRow + first[x];
+                    for (int k = 0, n = count[x]; k < n; k++) {
+                        int p = src[from + k];
+                        int w = weights[offset + k];
+                        a += (p >>> 24) * w;
+                        r += (p >> 16 & 0xff) * w;
+                        g += (p >> 8 & 0xff) * w;
+                        b += (p & 0xff) * w;
+                    }
+                    dst[dstRow + x] = pack(a, r, g, b);
+                }
+            }
+        });
+    }
+
+    /**
+     * Filters the columns of {@code src} ({@code width x srcHeight}) into {@code dst} ({@code width x count.length}).
+     */
+    void vertical(PixelEngine engine, int[] src, int width, int srcHeight, int[] dst) {
+        int dstHeight = first.length;
+        engine.forEachTile(width, dstHeight, (x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int offset = y * stride;
+                int from = first[y] * width;
+                int n = count[y];
+                int dstRow = y * width;
+                for (int x = x0; x < x1; x++) {
+                    int a = ROUND, r = ROUND, g = ROUND, b = ROUND;
+                    for (int k = 0, index = from + x; k < n; k++, index += width) {
+                        int p = src[index];
+                        int w = weights[offset + k];
+                        a += (p >>> 24) * w;
+                        r += (p >> 16 & 0xff) * w;
+                        g += (p >> 8 & 0xff) * w;
+                        b += (p & 0xff) * w;
+                    }
+                    dst[dstRow + x] = pack(a, r, g, b);
+                }
+            }
+        });
+    }
+
+    private static int pack(int a, int r, int g, int b) {
+        return (a >>> SHIFT) << 24 | (r >>> SHIFT) << 16 | (g >>> SHIFT) << 8 | (b >>> SHIFT);
+    }
+}
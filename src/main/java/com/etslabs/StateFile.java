@@ -0,0 +1,203 @@
+package com.etslabs;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Contents of a .perspective file: the image path and the state of every perspective.
+ *
+ * <p>Binary layout, big-endian: a 16-byte header (magic "LB5S", version, reserved, payload length,
+ * CRC32 of the payload) followed by the payload: the image path (length in bytes, -1 for none, then
+ * UTF-8), the number of perspectives, and for each one its scale factor, translateX, translateY and
+ * translation point (a presence byte then x and y). Files written by the former
+ * {@code ObjectOutputStream} format are still read, through a filter that only accepts the classes
+ * that format contained.
+ */
+public final class StateFile {
+    private static final int MAGIC = 0x4C423553; // "LB5S"
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    private static final short SERIALIZATION_MAGIC = (short) 0xACED;
+
+    private static final ObjectInputFilter LEGACY_FILTER = ObjectInputFilter.Config.createFilter(
+            "com.etslabs.AppState;java.awt.Point;java.lang.String;maxdepth=4;maxrefs=64;maxbytes=65536;!*");
+
+    private final String imagePath;
+    private final List<AppState> states;
+
+    public StateFile(String imagePath, List<AppState> states) {
+        this.imagePath = imagePath;
+        this.states = Collections.unmodifiableList(new ArrayList<>(states));
+    }
+
+    /**
+     * Absolute path of the image the states apply to, or null if no image was loaded.
+     */
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    public List<AppState> getStates() {
+        return states;
+    }
+
+    /**
+     * Writes the file next to its destination then moves it in place, so a failed save never
+     * leaves a truncated file behind.
+     */
+    public void write(Path path) throws IOException {
+        byte[] pathBytes = imagePath != null ? imagePath.getBytes(StandardCharsets.UTF_8) : null;
+        int payloadBytes = 4 + (pathBytes != null ? pathBytes.length : 0) + 4 + states.size() * (3 * 8 + 1 + 2 * 4);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payloadBytes);
+
+        buffer.position(HEADER_BYTES);
+        if (pathBytes != null) {
+            buffer.putInt(pathBytes.length).put(pathBytes);
+        } else {
+            buffer.putInt(-1);
+        }
+        buffer.putInt(states.size());
+        for (AppState state : states) {
+            buffer.putDouble(state.getScaleFactor());
+            buffer.putDouble(state.getTranslateX());
+            buffer.putDouble(state.getTranslateY());
+            Point translation = state.getTranslation();
+            buffer.put((byte) (translation != null ? 1 : 0));
+            buffer.putInt(translation != null ? translation.x : 0);
+            buffer.putInt(translation != null ? translation.y : 0);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, payloadBytes);
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putShort(6, (short) 0);
+        buffer.putInt(8, payloadBytes);
+        buffer.putInt(12, (int) crc.getValue());
+        buffer.rewind();
+
+        Path absolute = path.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a state file in the binary format, or in the former serialized format.
+     *
+     * @throws IOException if the file is truncated, corrupted or of an unknown version
+     */
+    public static StateFile read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header);
+            header.flip();
+            if (header.remaining() >= 2 && header.getShort(0) == SERIALIZATION_MAGIC) {
+                channel.position(0);
+                return readLegacy(Channels.newInputStream(channel));
+            }
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException("Not a state file: " + path);
+            }
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported state file version " + version + ": " + path);
+            }
+            header.getShort();
+            int payloadBytes = header.getInt();
+            int expectedCrc = header.getInt();
+            if (payloadBytes < 0 || payloadBytes > MAX_PAYLOAD_BYTES) {
+                throw new IOException("Corrupted state file: " + path);
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(payloadBytes);
+            readFully(channel, payload);
+            if (payload.hasRemaining()) {
+                throw new IOException("Truncated state file: " + path);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, payloadBytes);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Corrupted state file (checksum mismatch): " + path);
+            }
+            payload.flip();
+            return parse(payload);
+        }
+    }
+
+    private static StateFile parse(ByteBuffer payload) throws IOException {
+        try {
+            String imagePath = null;
+            int pathLength = payload.getInt();
+            if (pathLength >= 0) {
+                byte[] pathBytes = new byte[pathLength];
+                payload.get(pathBytes);
+                imagePath = new String(pathBytes, StandardCharsets.UTF_8);
+            }
+            int count = payload.getInt();
+            if (count < 0) {
+                throw new IOException("Corrupted state file: negative perspective count");
+            }
+            List<AppState> states = new ArrayList<>(Math.min(count, payload.remaining()));
+            for (int i = 0; i < count; i++) {
+                double scaleFactor = payload.getDouble();
+                double translateX = payload.getDouble();
+                double translateY = payload.getDouble();
+                boolean hasTranslation = payload.get() != 0;
+                int x = payload.getInt();
+                int y = payload.getInt();
+                states.add(new AppState(scaleFactor, translateX, translateY, hasTranslation ? new Point(x, y) : null));
+            }
+            return new StateFile(imagePath, states);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted state file", e);
+        }
+    }
+
+    /**
+     * Reads the former format: the image path then two {@link AppState}s written with an ObjectOutputStream.
+     */
+    private static StateFile readLegacy(InputStream in) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(in)) {
+            ois.setObjectInputFilter(LEGACY_FILTER);
+            String imagePath = (String) ois.readObject();
+            List<AppState> states = new ArrayList<>(2);
+            states.add((AppState) ois.readObject());
+            states.add((AppState) ois.readObject());
+            return new StateFile(imagePath, states);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid legacy state file", e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // keep reading until full or end of file
+        }
+    }
+}
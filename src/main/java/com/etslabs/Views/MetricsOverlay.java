@@ -0,0 +1,66 @@
+package com.etslabs.Views;
+
+import java.util.Locale;
+
+import com.etslabs.Metrics.Metrics;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.Label;
+
+/**
+ * Small on-screen readout of frames per second, heap use and repaint latency. It only runs
+ * while shown.
+ */
+public class MetricsOverlay extends Label {
+    private static final long REFRESH_NANOS = 500_000_000L;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        private long windowStart;
+        private int frames;
+
+        @Override
+        public void handle(long now) {
+            if (windowStart == 0) {
+                windowStart = now;
+            }
+            frames++;
+            if (now - windowStart >= REFRESH_NANOS) {
+                refresh(frames * 1e9 / (now - windowStart));
+                windowStart = now;
+                frames = 0;
+            }
+        }
+
+        @Override
+        public void stop() {
+            super.stop();
+            windowStart = 0;
+            frames = 0;
+        }
+    };
+
+    public MetricsOverlay() {
+        setStyle("-fx-font-family: monospace; -fx-padding: 0 8 0 8;");
+        setVisible(false);
+        setManaged(false);
+        visibleProperty().addListener((obs, wasVisible, isVisible) -> {
+            setManaged(isVisible);
+            if (isVisible) {
+                timer.start();
+            } else {
+                timer.stop();
+            }
+        });
+    }
+
+    private void refresh(double fps) {
+        Runtime runtime = Runtime.getRuntime();
+        long usedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        long maxMb = runtime.maxMemory() / (1024 * 1024);
+        String text = String.format(Locale.ROOT, "%.0f fps  heap %d/%d MB", fps, usedMb, maxMb);
+        if (Metrics.isEnabled() && Metrics.REPAINT.getCount() > 0) {
+            text += String.format(Locale.ROOT, "  repaint p99<=%.1f ms", Metrics.REPAINT.getPercentileMillis(99));
+        }
+        setText(text);
+    }
+}
@@ -1,8 +1,13 @@
 package com.etslabs.Views;
 
 import com.etslabs.Interfaces.Observer;
+import com.etslabs.Metrics.Metrics;
+import com.etslabs.Metrics.RepaintEvent;
 import com.etslabs.Models.Perspective;
+import com.etslabs.Models.TilePrefetcher;
+import com.etslabs.Models.TiledImage;
 
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
@@ -14,41 +19,120 @@ import javafx.scene.layout.Pane;
 public class PerspectiveView extends Pane implements Observer {
     private final Perspective perspective;
     private final Canvas canvas;
+    private final Runnable repaintTask = this::repaint;
+    // Decodes the visible tiles off the JavaFX thread, repainting as they arrive
+    private final TilePrefetcher tilePrefetcher = new TilePrefetcher();
 
     public PerspectiveView(Perspective perspective) {
         this.perspective = perspective;
-        this.perspective.addObserver(this);
+        this.perspective.subscribeOnFxThread(this);
 
         canvas = new Canvas(800, 600); // Adjust size as needed
         getChildren().add(canvas);
     }
 
     /**
-     * Update method called when the observed Perspective changes.
+     * Update method called when the observed Perspective changes. The repaint is deferred to the
+     * next pulse so that several changes in one frame are drawn once.
      */
     @Override
     public void update() {
-        repaint();
+        PulseScheduler.schedule(repaintTask);
     }
 
     /**
-     * Repaint the perspective canvas based on the current image and transformations.
+     * Repaint the perspective canvas based on the current image and transformations. Only the part
+     * of the image inside the canvas is drawn, so a pan costs no more than the pixels on screen.
      */
     private void repaint() {
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight()); 
+        long start = Metrics.now();
+        RepaintEvent event = new RepaintEvent();
+        event.begin();
+        draw(canvas.getGraphicsContext2D());
+        event.end();
+        if (event.shouldCommit()) {
+            event.view = "PerspectiveView";
+            event.commit();
+        }
+        Metrics.REPAINT.recordSince(start);
+    }
 
+    /**
+     * Clears and redraws the canvas, reading only the source pixels that land in it.
+     */
+    private void draw(GraphicsContext gc) {
+        double w = canvas.getWidth();
+        double h = canvas.getHeight();
+        gc.clearRect(0, 0, w, h);
         Image fxImage = perspective.getTransformedImage();
-        if (fxImage != null) {
-            gc.save(); // Save the current state
+        if (fxImage == null) {
+            return;
+        }
+        double scale = perspective.getScaleFactor();
+        double translateX = (int) perspective.getTranslation().getX();
+        double translateY = (int) perspective.getTranslation().getY();
+        double sourceWidth = perspective.getImageModel().getSourceWidth();
+        double sourceHeight = perspective.getImageModel().getSourceHeight();
+
+        // Visible rectangle in source pixels, widened to whole pixels
+        double minX = Math.max(0, Math.floor(-translateX / scale));
+        double minY = Math.max(0, Math.floor(-translateY / scale));
+        double maxX = Math.min(sourceWidth, Math.ceil((w - translateX) / scale));
+        double maxY = Math.min(sourceHeight, Math.ceil((h - translateY) / scale));
+        if (maxX <= minX || maxY <= minY) {
+            return;
+        }
+
+        TiledImage tiledImage = perspective.getImageModel().getTiledImage();
+        if (tiledImage != null) {
+            drawVisibleTiles(gc, tiledImage, fxImage, minX, minY, maxX, maxY);
+        } else {
+            tilePrefetcher.cancel();
+            drawPreview(gc, fxImage, minX, minY, maxX, maxY);
+        }
+    }
 
-            // Apply transformations
-            gc.translate(perspective.getTranslation().getX(), perspective.getTranslation().getY());
-            gc.scale(perspective.getScaleFactor(), perspective.getScaleFactor());
+    /**
+     * Draws the given source rectangle from the image of the perspective, which may be a smaller
+     * preview: previews are drawn at the size of their source so that zoom means the same for both.
+     */
+    private void drawPreview(GraphicsContext gc, Image fxImage,
+                             double minX, double minY, double maxX, double maxY) {
+        double scale = perspective.getScaleFactor();
+        double translateX = (int) perspective.getTranslation().getX();
+        double translateY = (int) perspective.getTranslation().getY();
+        double ratioX = fxImage.getWidth() / perspective.getImageModel().getSourceWidth();
+        double ratioY = fxImage.getHeight() / perspective.getImageModel().getSourceHeight();
+        gc.drawImage(fxImage,
+                minX * ratioX, minY * ratioY, (maxX - minX) * ratioX, (maxY - minY) * ratioY,
+                translateX + minX * scale, translateY + minY * scale,
+                (maxX - minX) * scale, (maxY - minY) * scale);
+    }
 
-            gc.drawImage(fxImage, 0, 0);
+    /**
+     * Draws the given source rectangle of a tiled image from the tiles of the pyramid level that
+     * matches the current scale. Tiles are never decoded here: while some are missing, the preview
+     * shows under the coarser cached ones until the prefetcher has decoded them and schedules
+     * another repaint.
+     */
+    private void drawVisibleTiles(GraphicsContext gc, TiledImage tiledImage, Image preview,
+                                  double minX, double minY, double maxX, double maxY) {
+        double scale = perspective.getScaleFactor();
+        double translateX = (int) perspective.getTranslation().getX();
+        double translateY = (int) perspective.getTranslation().getY();
 
-            gc.restore(); // Restore the state
+        Rectangle2D region = new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+        int outputWidth = (int) Math.ceil((maxX - minX) * scale);
+        int outputHeight = (int) Math.ceil((maxY - minY) * scale);
+        if (outputWidth <= 0 || outputHeight <= 0) {
+            return;
+        }
+        int level = tiledImage.levelForScale(outputWidth / region.getWidth());
+        if (!tiledImage.isCached(region, level)) {
+            drawPreview(gc, preview, minX, minY, maxX, maxY);
+            tilePrefetcher.request(tiledImage, level, region, null, () -> PulseScheduler.schedule(repaintTask));
         }
+        Image visible = tiledImage.renderCachedRegion(region, outputWidth, outputHeight);
+        gc.drawImage(visible, translateX + minX * scale, translateY + minY * scale);
     }
 }
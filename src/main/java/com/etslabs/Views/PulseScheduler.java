@@ -0,0 +1,56 @@
+package com.etslabs.Views;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+/**
+ * Runs tasks on the next JavaFX pulse. A task scheduled several times before the pulse runs
+ * only once, so views can request a repaint on every change and still draw once per frame.
+ */
+public final class PulseScheduler {
+    private static final Set<Runnable> pending = new LinkedHashSet<>();
+    private static AnimationTimer timer;
+
+    private PulseScheduler() {}
+
+    /**
+     * Schedules the task for the next pulse. Tasks are compared by identity, so callers should
+     * keep the same instance (e.g. a field holding a method reference).
+     */
+    public static void schedule(Runnable task) {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> schedule(task));
+            return;
+        }
+        if (timer == null) {
+            timer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    runPending();
+                }
+            };
+        }
+        if (pending.add(task) && pending.size() == 1) {
+            timer.start();
+        }
+    }
+
+    private static void runPending() {
+        timer.stop();
+        // Tasks scheduled while running wait for the next pulse
+        List<Runnable> tasks = new ArrayList<>(pending);
+        pending.clear();
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
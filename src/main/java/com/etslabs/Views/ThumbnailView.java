@@ -14,21 +14,23 @@ import javafx.scene.layout.Pane;
 public class ThumbnailView extends Pane implements Observer {
     private final ImageModel imageModel;
     private final Canvas canvas;
+    private final Runnable repaintTask = this::repaint;
 
     public ThumbnailView(ImageModel imageModel) {
         this.imageModel = imageModel;
-        this.imageModel.addObserver(this);
+        this.imageModel.subscribeOnFxThread(this);
 
         canvas = new Canvas(200, 150); 
         getChildren().add(canvas);
     }
 
     /**
-     * Update method called when the observed ImageModel changes.
+     * Update method called when the observed ImageModel changes. The repaint is deferred to the
+     * next pulse so that several changes in one frame are drawn once.
      */
     @Override
     public void update() {
-        repaint();
+        PulseScheduler.schedule(repaintTask);
     }
 
     /**
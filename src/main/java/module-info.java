@@ -1,8 +1,11 @@
 module com.etslabs {
-    requires javafx.controls;
+    requires transitive javafx.controls;
     requires javafx.fxml;
-    requires java.desktop;
+    requires transitive java.desktop;
+    requires jdk.jfr;
 
     opens com.etslabs to javafx.fxml;
     exports com.etslabs;
+    // Only the recorder needs to reach the event classes
+    exports com.etslabs.Metrics to jdk.jfr;
 }
@@ -0,0 +1,207 @@
+package com.etslabs.Commands;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.etslabs.Interfaces.Command;
+import com.etslabs.Models.ImageModel;
+import com.etslabs.Models.Perspective;
+import com.etslabs.Processing.GrayscaleFilter;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+
+class CommandJournalTest {
+    @TempDir
+    Path dir;
+
+    private final CommandManager commandManager = CommandManager.getInstance();
+    private Path path;
+    private Perspective perspective;
+
+    @BeforeEach
+    void setUp() {
+        path = dir.resolve("session.journal");
+        perspective = new Perspective(new ImageModel());
+        commandManager.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        commandManager.setJournal(null);
+        commandManager.clear();
+    }
+
+    @Test
+    void replayRestoresSnapshotAndHistory() throws Exception {
+        CommandJournal journal = open();
+        perspective.setScaleFactor(1.5);
+        journal.snapshot(null);
+        execute(new ZoomCommand(perspective, 2.0));
+        execute(new TranslateCommand(perspective, 10, -5));
+        execute(new ZoomCommand(perspective, 4.0));
+        commandManager.undo();
+        journal.close();
+
+        resetPerspective();
+        replay();
+
+        assertEquals(2.0, perspective.getScaleFactor());
+        assertEquals(new Point(10, -5), perspective.getTranslation());
+        assertEquals(3, commandManager.getHistory().size());
+        assertEquals(2, commandManager.getCursor());
+        commandManager.jumpTo(0);
+        assertEquals(1.5, perspective.getScaleFactor());
+    }
+
+    @Test
+    void truncatedTailIsIgnored() throws Exception {
+        CommandJournal journal = open();
+        journal.snapshot(null);
+        execute(new ZoomCommand(perspective, 2.0));
+        execute(new ZoomCommand(perspective, 3.0));
+        journal.close();
+        // A crash in the middle of writing the last record
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        resetPerspective();
+        replay();
+
+        assertEquals(2.0, perspective.getScaleFactor());
+        assertEquals(1, commandManager.getHistory().size());
+    }
+
+    @Test
+    void journalWithoutCompleteRecordIsNotRecovered() throws IOException {
+        Files.write(path, new byte[] { 0, 0, 0, 42, 1, 2 });
+
+        assertNull(open().recover());
+    }
+
+    @Test
+    void pastedImageIsReplayedFromSideFile() throws Exception {
+        WritableImage image = gradient(300, 200);
+        CommandJournal journal = open();
+        journal.snapshot(null);
+        execute(new PasteCommand(perspective, image, 2.0, new Point(3, 4)));
+        journal.close();
+        // Only the small image record is in the journal itself
+        assertEquals(4L * 300 * 200, Files.size(dir.resolve("session.journal.images")));
+
+        perspective.getImageModel().setImage(null);
+        resetPerspective();
+        replay();
+
+        Image replayed = perspective.getImageModel().getImage();
+        assertNotNull(replayed);
+        assertEquals(300, (int) replayed.getWidth());
+        for (int y = 0; y < 200; y++) {
+            for (int x = 0; x < 300; x++) {
+                assertEquals(image.getPixelReader().getArgb(x, y), replayed.getPixelReader().getArgb(x, y));
+            }
+        }
+        assertEquals(new Point(3, 4), perspective.getTranslation());
+    }
+
+    @Test
+    void damagedImageStopsReplayAtItsPaste() throws Exception {
+        CommandJournal journal = open();
+        journal.snapshot(null);
+        execute(new ZoomCommand(perspective, 2.0));
+        execute(new PasteCommand(perspective, gradient(16, 16), 1.0, new Point(0, 0)));
+        execute(new ZoomCommand(perspective, 5.0));
+        journal.close();
+        Path images = dir.resolve("session.journal.images");
+        byte[] bytes = Files.readAllBytes(images);
+        bytes[100] ^= 0x10;
+        Files.write(images, bytes);
+
+        perspective.getImageModel().setImage(null);
+        resetPerspective();
+        replay();
+
+        assertEquals(2.0, perspective.getScaleFactor());
+        assertEquals(1, commandManager.getHistory().size());
+        assertNull(perspective.getImageModel().getImage());
+    }
+
+    @Test
+    void sessionTellsWhetherItReplaysFilters() throws Exception {
+        CommandJournal journal = open();
+        journal.snapshot(null);
+        execute(new ZoomCommand(perspective, 2.0));
+        journal.close();
+        assertFalse(recoverAndClose().hasFilters());
+
+        perspective.getImageModel().setImage(gradient(16, 16));
+        journal = open();
+        journal.snapshot(null);
+        execute(new FilterCommand(perspective, new GrayscaleFilter()));
+        execute(new ZoomCommand(perspective, 3.0));
+        journal.close();
+        assertTrue(recoverAndClose().hasFilters());
+    }
+
+    private CommandJournal open() {
+        CommandJournal journal = new CommandJournal(path);
+        journal.registerPerspective(1, perspective);
+        commandManager.setJournal(journal);
+        return journal;
+    }
+
+    private void execute(Command command) {
+        commandManager.executeCommand(command);
+        commandManager.endMerge();
+    }
+
+    private void resetPerspective() {
+        commandManager.setJournal(null);
+        commandManager.clear();
+        perspective.setScaleFactor(1.0);
+        perspective.setTranslation(new Point(0, 0));
+    }
+
+    private void replay() throws InterruptedException {
+        CommandJournal journal = open();
+        CommandJournal.Session session = journal.recover();
+        assertNotNull(session);
+        session.replay(commandManager);
+        journal.close();
+    }
+
+    private CommandJournal.Session recoverAndClose() {
+        resetPerspective();
+        CommandJournal journal = new CommandJournal(path);
+        CommandJournal.Session session = journal.recover();
+        journal.close();
+        assertNotNull(session);
+        return session;
+    }
+
+    private static WritableImage gradient(int width, int height) {
+        WritableImage image = new WritableImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.getPixelWriter().setArgb(x, y, 0xff000000 | x * 0x10203 ^ y * 0x30201);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,36 @@
+package com.etslabs.Converter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+class ImageConverterTest {
+    @Test
+    void scaleToFitKeepsTheAspectRatio() {
+        SharedPixelBuffer scaled = ImageConverter.scaleToFit(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB), 160);
+        assertEquals(160, scaled.getWidth());
+        assertEquals(120, scaled.getHeight());
+    }
+
+    @Test
+    void largeReductionAveragesEverySourcePixel() {
+        // One pixel checkerboard: sampling it instead of averaging gives black or white, not gray
+        int size = 1024;
+        BufferedImage source = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                source.setRGB(x, y, (x + y) % 2 == 0 ? 0xffffff : 0);
+            }
+        }
+
+        SharedPixelBuffer scaled = ImageConverter.scaleToFit(source, 100);
+        assertEquals(100, scaled.getWidth());
+        for (int pixel : scaled.getPixels()) {
+            int green = pixel >> 8 & 0xff;
+            assertTrue(Math.abs(green - 128) <= 2, "Aliased pixel " + Integer.toHexString(pixel));
+        }
+    }
+}
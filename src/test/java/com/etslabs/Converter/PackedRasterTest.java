@@ -0,0 +1,139 @@
+package com.etslabs.Converter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class PackedRasterTest {
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 90;
+
+    @Test
+    void grayImageIsPackedOneBytePerPixel() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                raster.setSample(x, y, 0, (x * 3 + y) & 0xff);
+            }
+        }
+
+        PackedRaster packed = PackedRaster.of(image);
+        assertEquals(PackedRaster.Storage.GRAY, packed.getStorage());
+        assertEquals((long) WIDTH * HEIGHT, packed.getByteCount());
+        assertArrayEquals(drawnPixels(image), expand(packed));
+    }
+
+    @Test
+    void opaqueColorImageIsPackedAsRgb() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, x * 0x030507 ^ y * 0x070503);
+            }
+        }
+
+        PackedRaster packed = PackedRaster.of(image);
+        assertEquals(PackedRaster.Storage.RGB, packed.getStorage());
+        assertEquals(3L * WIDTH * HEIGHT, packed.getByteCount());
+        assertArrayEquals(drawnPixels(image), expand(packed));
+    }
+
+    @Test
+    void paletteImageKeepsItsIndexes() {
+        byte[] levels = new byte[16];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = (byte) (i * 17);
+        }
+        IndexColorModel palette = new IndexColorModel(4, 16, levels, levels, new byte[16]);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY, palette);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                raster.setSample(x, y, 0, (x + y) % 16);
+            }
+        }
+
+        PackedRaster packed = PackedRaster.of(image);
+        assertEquals(PackedRaster.Storage.INDEXED, packed.getStorage());
+        assertArrayEquals(drawnPixels(image), expand(packed));
+    }
+
+    @Test
+    void paletteWiderThanAByteIsKeptAsArgb() {
+        int size = 1000;
+        int[] colors = new int[size];
+        for (int i = 0; i < size; i++) {
+            colors[i] = 0xff000000 | i * 0x010307;
+        }
+        IndexColorModel palette = new IndexColorModel(16, size, colors, 0, false, -1, DataBuffer.TYPE_USHORT);
+        BufferedImage image = new BufferedImage(palette, palette.createCompatibleWritableRaster(WIDTH, HEIGHT), false, null);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                raster.setSample(x, y, 0, (x * HEIGHT + y) % size);
+            }
+        }
+
+        PackedRaster packed = PackedRaster.of(image);
+        assertEquals(PackedRaster.Storage.ARGB, packed.getStorage());
+        assertArrayEquals(drawnPixels(image), expand(packed));
+    }
+
+    @Test
+    void packPicksTheNarrowestStorage() throws IOException {
+        assertEquals(PackedRaster.Storage.GRAY, packAndCheck(value -> 0xff000000 | value * 0x010101).getStorage());
+        assertEquals(PackedRaster.Storage.RGB, packAndCheck(value -> 0xff000000 | value * 0x030201).getStorage());
+        // Premultiplied: no channel above alpha
+        assertEquals(PackedRaster.Storage.ARGB, packAndCheck(value -> 0x80000000 | (value & 0x7f) * 0x010101).getStorage());
+    }
+
+    @Test
+    void sizesAreCheckedBeforeAllocating() {
+        assertThrows(IllegalArgumentException.class,
+                () -> PackedRaster.pack(50_000, 50_000, (y, dst, offset) -> dst[offset] = 0xff000000));
+    }
+
+    private interface PixelValue {
+        int argb(int value);
+    }
+
+    private static PackedRaster packAndCheck(PixelValue pixel) throws IOException {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = pixel.argb(i & 0xff);
+        }
+        PackedRaster packed = PackedRaster.pack(WIDTH, HEIGHT,
+                (y, dst, offset) -> System.arraycopy(pixels, y * WIDTH, dst, offset, WIDTH));
+        assertArrayEquals(pixels, expand(packed));
+        return packed;
+    }
+
+    private static int[] expand(PackedRaster packed) {
+        int[] pixels = new int[packed.getWidth() * packed.getHeight()];
+        for (int y = 0; y < packed.getHeight(); y++) {
+            packed.readRow(0, y, packed.getWidth(), pixels, y * packed.getWidth());
+        }
+        return pixels;
+    }
+
+    /**
+     * Premultiplied pixels of the image as Java2D draws it, which packing must reproduce.
+     */
+    private static int[] drawnPixels(BufferedImage image) {
+        BufferedImage drawn = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = drawn.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return (int[]) drawn.getRaster().getDataElements(0, 0, image.getWidth(), image.getHeight(), null);
+    }
+}
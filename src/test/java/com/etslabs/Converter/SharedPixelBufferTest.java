@@ -0,0 +1,30 @@
+package com.etslabs.Converter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class SharedPixelBufferTest {
+    @Test
+    void pixelCountIsCheckedInLong() {
+        assertEquals(70 * 90, SharedPixelBuffer.pixelCount(70, 90));
+        // 2.5 billion pixels, which wrap around to a negative int
+        assertThrows(IllegalArgumentException.class, () -> SharedPixelBuffer.pixelCount(50_000, 50_000));
+        // 4.3 billion pixels, which wrap around to a small positive int
+        assertThrows(IllegalArgumentException.class, () -> SharedPixelBuffer.pixelCount(65_537, 65_537));
+        assertThrows(IllegalArgumentException.class, () -> SharedPixelBuffer.pixelCount(-1, 10));
+    }
+
+    @Test
+    void oversizedBuffersAreRejectedBeforeAllocating() {
+        assertThrows(IllegalArgumentException.class, () -> SharedPixelBuffer.allocate(65_537, 65_537));
+        assertThrows(IllegalArgumentException.class, () -> SharedPixelBuffer.wrap(65_537, 65_537, new int[1]));
+    }
+
+    @Test
+    void wrapChecksTheArrayLength() {
+        assertThrows(IllegalArgumentException.class, () -> SharedPixelBuffer.wrap(10, 10, new int[99]));
+        assertEquals(10, SharedPixelBuffer.wrap(10, 10, new int[100]).getWidth());
+    }
+}
@@ -0,0 +1,141 @@
+package com.etslabs.Models;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import javafx.scene.image.Image;
+
+class ImageVersionTest {
+    private static final int TILE = ImageVersion.TILE_SIZE;
+    // Two full tiles and a partial one across, a full and a partial one down
+    private static final int WIDTH = 2 * TILE + 88;
+    private static final int HEIGHT = TILE + 44;
+
+    @Test
+    void readsBackAcrossTiles() {
+        int[] pixels = pattern(WIDTH, HEIGHT, 0);
+        ImageVersion version = ImageVersion.of(pixels, WIDTH, HEIGHT);
+        try {
+            assertArrayEquals(pixels, readAll(version));
+
+            int[] window = new int[20 * 30];
+            version.read(TILE - 10, TILE - 15, 20, 30, window);
+            for (int y = 0; y < 30; y++) {
+                for (int x = 0; x < 20; x++) {
+                    assertEquals(pixels[(TILE - 15 + y) * WIDTH + TILE - 10 + x], window[y * 20 + x]);
+                }
+            }
+        } finally {
+            version.release();
+        }
+    }
+
+    @Test
+    void editCopiesOnlyTouchedTiles() {
+        int[] pixels = pattern(WIDTH, HEIGHT, 0);
+        ImageVersion base = ImageVersion.of(pixels, WIDTH, HEIGHT);
+        // Inside the first tile only
+        Rectangle region = new Rectangle(10, 20, 50, 40);
+        int[] edited = pattern(region.width, region.height, 7);
+        ImageVersion derived = base.withRegion(edited, region.x, region.y, region.width, region);
+        try {
+            assertEquals(4L * TILE * TILE, derived.getBytesAddedTo(base));
+
+            int[] expected = pixels.clone();
+            for (int y = 0; y < region.height; y++) {
+                System.arraycopy(edited, y * region.width, expected, (region.y + y) * WIDTH + region.x, region.width);
+            }
+            assertArrayEquals(expected, readAll(derived));
+            // The version it came from is left as it was
+            assertArrayEquals(pixels, readAll(base));
+        } finally {
+            derived.release();
+            base.release();
+        }
+    }
+
+    @Test
+    void editWithSamePixelsSharesEveryTile() {
+        int[] pixels = pattern(WIDTH, HEIGHT, 0);
+        ImageVersion base = ImageVersion.of(pixels, WIDTH, HEIGHT);
+        Rectangle region = new Rectangle(0, 0, WIDTH, HEIGHT);
+        ImageVersion derived = base.withRegion(pixels, 0, 0, WIDTH, region);
+        try {
+            assertEquals(0, derived.getBytesAddedTo(base));
+        } finally {
+            derived.release();
+            base.release();
+        }
+    }
+
+    @Test
+    void tilesAreFreedWithTheirLastVersion() {
+        long before = ImageVersion.getLiveTileBytes();
+        ImageVersion base = ImageVersion.of(pattern(WIDTH, HEIGHT, 0), WIDTH, HEIGHT);
+        assertEquals(before + 4L * WIDTH * HEIGHT, ImageVersion.getLiveTileBytes());
+
+        // Spans the first two tiles of the first row
+        Rectangle region = new Rectangle(TILE - 5, 0, 10, 10);
+        ImageVersion derived = base.withRegion(pattern(10, 10, 3), region.x, region.y, 10, region);
+        assertEquals(before + 4L * WIDTH * HEIGHT + 2 * 4L * TILE * TILE, ImageVersion.getLiveTileBytes());
+
+        // An extra reference keeps the tiles alive
+        base.retain();
+        base.release();
+        assertEquals(before + 4L * WIDTH * HEIGHT + 2 * 4L * TILE * TILE, ImageVersion.getLiveTileBytes());
+
+        // Only the two tiles the derived version replaced are freed, the others are shared
+        base.release();
+        assertEquals(before + 4L * WIDTH * HEIGHT, ImageVersion.getLiveTileBytes());
+        assertThrows(IllegalStateException.class, base::retain);
+
+        derived.release();
+        assertEquals(before, ImageVersion.getLiveTileBytes());
+    }
+
+    @Test
+    void imageIsRenderedOnceAcrossThreads() throws Exception {
+        ImageVersion version = ImageVersion.of(pattern(WIDTH, HEIGHT, 0), WIDTH, HEIGHT);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Image>> renders = Collections.nCopies(8, version::toImage);
+            List<Future<Image>> rendered = executor.invokeAll(renders);
+            Image first = rendered.get(0).get();
+            for (Future<Image> image : rendered) {
+                assertSame(first, image.get());
+            }
+            ImageVersion found = ImageVersion.find(first);
+            assertSame(version, found);
+            found.release();
+        } finally {
+            executor.shutdown();
+            version.release();
+        }
+    }
+
+    private static int[] readAll(ImageVersion version) {
+        int[] pixels = new int[version.getWidth() * version.getHeight()];
+        version.read(0, 0, version.getWidth(), version.getHeight(), pixels);
+        return pixels;
+    }
+
+    private static int[] pattern(int width, int height, int seed) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i * 0x9e3779b1 + seed) & 0xffffff;
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,117 @@
+package com.etslabs.Models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.etslabs.Converter.SharedPixelBuffer;
+
+class ThumbnailCacheTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void opaqueThumbnailIsStoredAsJpeg() throws Exception {
+        File source = source("photo.jpg");
+        ThumbnailCache cache = new ThumbnailCache(dir.resolve("cache"), 1024 * 1024);
+        SharedPixelBuffer thumbnail = gradient(0xff);
+        cache.put(source, thumbnail);
+
+        SharedPixelBuffer read = await(cache, source);
+        assertEquals(WIDTH, read.getWidth());
+        assertEquals(HEIGHT, read.getHeight());
+        // Lossy, but close to the original
+        for (int i = 0; i < read.getPixels().length; i += 97) {
+            int expected = thumbnail.getPixels()[i];
+            int actual = read.getPixels()[i];
+            assertEquals(0xff, actual >>> 24);
+            for (int shift = 0; shift < 24; shift += 8) {
+                assertTrue(Math.abs((expected >> shift & 0xff) - (actual >> shift & 0xff)) < 16);
+            }
+        }
+        assertTrue(Files.size(entries().get(0)) < 4L * WIDTH * HEIGHT / 4);
+    }
+
+    @Test
+    void transparentThumbnailIsStoredLosslessly() throws Exception {
+        File source = source("icon.png");
+        ThumbnailCache cache = new ThumbnailCache(dir.resolve("cache"), 1024 * 1024);
+        SharedPixelBuffer thumbnail = gradient(0x80);
+        cache.put(source, thumbnail);
+
+        SharedPixelBuffer read = await(cache, source);
+        for (int i = 0; i < read.getPixels().length; i++) {
+            int expected = thumbnail.getPixels()[i];
+            int actual = read.getPixels()[i];
+            assertEquals(expected >>> 24, actual >>> 24);
+            // Unpremultiplied on the way to PNG, premultiplied again when read
+            for (int shift = 0; shift < 24; shift += 8) {
+                assertTrue(Math.abs((expected >> shift & 0xff) - (actual >> shift & 0xff)) <= 1);
+            }
+        }
+    }
+
+    @Test
+    void changedSourceMissesTheCache() throws Exception {
+        File source = source("photo.jpg");
+        ThumbnailCache cache = new ThumbnailCache(dir.resolve("cache"), 1024 * 1024);
+        cache.put(source, gradient(0xff));
+        await(cache, source);
+
+        Files.write(source.toPath(), new byte[] { 1, 2, 3, 4 });
+        assertNull(cache.get(source));
+    }
+
+    private File source(String name) throws IOException {
+        return Files.write(dir.resolve(name), new byte[] { 1, 2, 3 }).toFile();
+    }
+
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve("cache"))) {
+            return files.filter(path -> path.toString().endsWith(".thumb")).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Waits for the background write of the entry.
+     */
+    private static SharedPixelBuffer await(ThumbnailCache cache, File source) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            SharedPixelBuffer read = cache.get(source);
+            if (read != null) {
+                return read;
+            }
+            Thread.sleep(10);
+        }
+        return fail("Thumbnail was not written");
+    }
+
+    private static SharedPixelBuffer gradient(int alpha) {
+        SharedPixelBuffer buffer = SharedPixelBuffer.allocate(WIDTH, HEIGHT);
+        int[] pixels = buffer.getPixels();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int red = x * 255 / WIDTH * alpha / 255;
+                int green = y * 255 / HEIGHT * alpha / 255;
+                int blue = (x + y) * 255 / (WIDTH + HEIGHT) * alpha / 255;
+                pixels[y * WIDTH + x] = alpha << 24 | red << 16 | green << 8 | blue;
+            }
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,106 @@
+package com.etslabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StateFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws IOException {
+        Path path = dir.resolve("state.perspective");
+        new StateFile("/images/été.png", Arrays.asList(
+                new AppState(2.5, 10, -20, new Point(10, -20)),
+                new AppState(1.0, 0, 0, null))).write(path);
+
+        StateFile read = StateFile.read(path);
+        assertEquals("/images/été.png", read.getImagePath());
+        assertEquals(2, read.getStates().size());
+        assertState(new AppState(2.5, 10, -20, new Point(10, -20)), read.getStates().get(0));
+        assertState(new AppState(1.0, 0, 0, null), read.getStates().get(1));
+    }
+
+    @Test
+    void roundTripWithoutImage() throws IOException {
+        Path path = dir.resolve("empty.perspective");
+        new StateFile(null, Collections.emptyList()).write(path);
+
+        StateFile read = StateFile.read(path);
+        assertNull(read.getImagePath());
+        assertTrue(read.getStates().isEmpty());
+    }
+
+    @Test
+    void checksumMismatchIsRejected() throws IOException {
+        Path path = dir.resolve("corrupted.perspective");
+        new StateFile("/images/a.png", Collections.singletonList(new AppState(3, 1, 2, new Point(1, 2)))).write(path);
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(path, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> StateFile.read(path));
+        assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+    }
+
+    @Test
+    void truncatedFileIsRejected() throws IOException {
+        Path path = dir.resolve("truncated.perspective");
+        new StateFile("/images/a.png", Collections.singletonList(new AppState(3, 1, 2, null))).write(path);
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 5));
+
+        assertThrows(IOException.class, () -> StateFile.read(path));
+    }
+
+    @Test
+    void legacySerializedFileIsMigrated() throws IOException {
+        Path path = dir.resolve("legacy.perspective");
+        try (OutputStream out = Files.newOutputStream(path); ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject("/images/legacy.png");
+            oos.writeObject(new AppState(1.5, 4, 5, new Point(4, 5)));
+            oos.writeObject(new AppState(0.5, -1, -2, null));
+        }
+
+        StateFile read = StateFile.read(path);
+        assertEquals("/images/legacy.png", read.getImagePath());
+        assertState(new AppState(1.5, 4, 5, new Point(4, 5)), read.getStates().get(0));
+        assertState(new AppState(0.5, -1, -2, null), read.getStates().get(1));
+
+        // Saving again writes the binary format, read back the same way
+        read.write(path);
+        assertEquals(read.getImagePath(), StateFile.read(path).getImagePath());
+    }
+
+    @Test
+    void legacyFileWithOtherClassesIsRejected() throws IOException {
+        Path path = dir.resolve("hostile.perspective");
+        try (OutputStream out = Files.newOutputStream(path); ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(new ArrayList<>(Collections.singletonList("/images/a.png")));
+        }
+
+        assertThrows(IOException.class, () -> StateFile.read(path));
+    }
+
+    private static void assertState(AppState expected, AppState actual) {
+        assertEquals(expected.getScaleFactor(), actual.getScaleFactor());
+        assertEquals(expected.getTranslateX(), actual.getTranslateX());
+        assertEquals(expected.getTranslateY(), actual.getTranslateY());
+        assertEquals(expected.getTranslation(), actual.getTranslation());
+    }
+}